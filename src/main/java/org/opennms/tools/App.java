@@ -36,6 +36,7 @@ import org.kohsuke.args4j.spi.SubCommands;
 import org.opennms.tools.commands.AuditCommand;
 import org.opennms.tools.commands.Command;
 import org.opennms.tools.commands.GenerateCommand;
+import org.opennms.tools.commands.UnmappedCommand;
 
 /**
  * Entry point.
@@ -45,7 +46,8 @@ public class App {
     @Argument(handler=SubCommandHandler.class)
     @SubCommands({
           @SubCommand(name="audit", impl=AuditCommand.class),
-          @SubCommand(name="generate", impl=GenerateCommand.class)
+          @SubCommand(name="generate", impl=GenerateCommand.class),
+          @SubCommand(name="unmapped", impl=UnmappedCommand.class)
     })
     Command cmd;
 
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import org.opennms.netmgt.xml.eventconf.Event;
+
+/**
+ * The events converted from a single definition, or the error that prevented its conversion.
+ */
+public class ConversionResult {
+    private final SmartsTrapDef definition;
+    private final List<Event> events;
+    private final RuntimeException error;
+
+    private ConversionResult(SmartsTrapDef definition, List<Event> events, RuntimeException error) {
+        this.definition = Objects.requireNonNull(definition);
+        this.events = events;
+        this.error = error;
+    }
+
+    public static ConversionResult of(SmartsTrapDef definition, List<Event> events) {
+        return new ConversionResult(definition, Objects.requireNonNull(events), null);
+    }
+
+    public static ConversionResult failed(SmartsTrapDef definition, RuntimeException error) {
+        return new ConversionResult(definition, Collections.emptyList(), Objects.requireNonNull(error));
+    }
+
+    public SmartsTrapDef getDefinition() {
+        return definition;
+    }
+
+    /**
+     * @return the converted events, empty if the conversion failed
+     */
+    public List<Event> getEvents() {
+        return events;
+    }
+
+    /**
+     * @return the error, or null if the conversion succeeded
+     */
+    public RuntimeException getError() {
+        return error;
+    }
+
+    public boolean isSuccessful() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        return "ConversionResult{" +
+                "definition=" + definition.getEventName() +
+                ", events=" + events.size() +
+                ", error=" + error +
+                '}';
+    }
+}
@@ -29,6 +29,9 @@
 package org.opennms.tools;
 
 import com.google.common.base.Strings;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import org.opennms.netmgt.xml.eventconf.AlarmData;
 import org.opennms.netmgt.xml.eventconf.Decode;
 import org.opennms.netmgt.xml.eventconf.Event;
@@ -44,86 +47,178 @@ import org.opennms.netmgt.xml.eventconf.Varbindsdecode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 /**
  * Converts a {@link SmartsTrapDef} to a {@link org.opennms.netmgt.xml.eventconf.Event}.
+ *
+ * When more than one thread is configured, the converter creates its pool on the first call to
+ * {@link #convertAll(Collection)} and reuses it until it is closed.
  */
-public class Converter {
+public class Converter implements Closeable {
     private static final Logger LOG = LoggerFactory.getLogger(Converter.class);
-    private static final Pattern s_variableSubsitutionPattern = Pattern.compile("\\$(.*?)\\$");
     private static final Pattern s_variablePattern = Pattern.compile("^V(\\d+|\\*+)$");
     private static final Pattern s_oidPattern = Pattern.compile("^OID(\\d+|\\*)$");
 
     private static final String DEFAULT_UEI_PREFIX = "uei.opennms.org/smarts";
+    public static final int DEFAULT_MAX_STATE_COMBINATIONS = 1000;
     private String ueiPrefix = DEFAULT_UEI_PREFIX;
+    private int threads = 1;
+    private int maxStateCombinations = DEFAULT_MAX_STATE_COMBINATIONS;
+    private StateExpansionStats expansionStats = new StateExpansionStats();
+    private ForkJoinPool pool;
+    // Shared between all of the events generated by this converter, see Fragments
+    private final ConcurrentMap<String, Parameter> classNameParms = new ConcurrentHashMap<>();
+    private final LoadingCache<Map<String, Map<String, String>>, List<Varbindsdecode>> varbindsdecodesByMap = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build(CacheLoader.from(Converter::toVarbindsdecodes));
 
     public void setUeiPrefix(String ueiPrefix) {
         this.ueiPrefix = ueiPrefix;
     }
 
-    public List<Event> convert(SmartsTrapDef def) {
-        if (def.getState() == null || def.getState().equals(replaceVariables(def.getState()))) {
-            // The state hasn't changed after the variable substitution, so it must be static
-            return Collections.singletonList(buildEvent(def, def.getState(), null, null));
-        } else {
-            // There are 1+ variables reference in the state
-            return handleDefWithDynamicState(def);
+    /**
+     * Sets the number of threads used by {@link #convertAll(Collection)}.
+     *
+     * @param threads 1 to convert sequentially, 0 or less to use all of the available cores
+     */
+    public void setThreads(int threads) {
+        if (threads != this.threads) {
+            close();
         }
+        this.threads = threads;
     }
 
-    private List<Event> handleDefWithDynamicState(SmartsTrapDef def) {
-        final List<Event> events = new ArrayList<>();
+    /**
+     * Sets the maximum number of events generated for a single definition whose state references
+     * variables. Definitions with more combinations are skipped, rather than being converted
+     * with only some of their states, which could leave alarms without the events that clear them.
+     * They are logged and counted in the {@link #getExpansionStats() statistics}.
+     *
+     * @throws IllegalArgumentException if the maximum is not positive
+     */
+    public void setMaxStateCombinations(int maxStateCombinations) {
+        if (maxStateCombinations <= 0) {
+            throw new IllegalArgumentException("The maximum number of state combinations must be positive: " + maxStateCombinations);
+        }
+        this.maxStateCombinations = maxStateCombinations;
+    }
 
-        final Matcher m = s_variableSubsitutionPattern.matcher(def.getState());
-        if (m.find()) {
-            String token = m.group(1);
-            Integer varbindIndex = null;
+    /**
+     * Sets the statistics updated whenever a state with variables is expanded, which can be
+     * shared between converters.
+     */
+    public void setExpansionStats(StateExpansionStats expansionStats) {
+        this.expansionStats = Objects.requireNonNull(expansionStats);
+    }
 
-            Matcher mm = s_variablePattern.matcher(token);
-            if (mm.matches()) {
-                varbindIndex = Integer.parseInt(mm.group(1));
-            }
+    public StateExpansionStats getExpansionStats() {
+        return expansionStats;
+    }
 
-            Map<String, String> tokenMappings = def.getMap().get(token);
-            if (tokenMappings == null) {
-                throw new IllegalStateException(String.format("No map found for %s in def: %s", token, def.getEventName()));
+    /**
+     * Converts all of the definitions. A definition that fails to convert does not stop
+     * the others from being converted, its error is kept in its result instead.
+     *
+     * The events of each definition are collected in its result, so a definition whose state
+     * references variables holds at most the maximum number of combinations in memory at once.
+     *
+     * @return the results, in the same order as the definitions
+     */
+    public List<ConversionResult> convertAll(Collection<SmartsTrapDef> defs) {
+        final List<SmartsTrapDef> defList = new ArrayList<>(defs);
+        if (threads == 1) {
+            final List<ConversionResult> results = new ArrayList<>(defList.size());
+            for (SmartsTrapDef def : defList) {
+                results.add(tryConvert(def));
             }
+            return results;
+        }
 
-            for (Map.Entry<String, String> tokenMapping : tokenMappings.entrySet()) {
-                // The key is the variable value
-                String varbindValue = tokenMapping.getKey();
-                // The value is the actual state
-                String state = tokenMapping.getValue();
+        return ParallelUtils.map(getPool(), defList, this::tryConvert);
+    }
 
-                events.add(buildEvent(def, state, varbindIndex, varbindValue));
-            }
+    private synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(ParallelUtils.getEffectiveThreads(threads));
+        }
+        return pool;
+    }
+
+    /**
+     * Shuts down the pool used to convert the definitions in parallel, if any.
+     */
+    @Override
+    public synchronized void close() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
         }
+    }
 
-        return events;
+    private ConversionResult tryConvert(SmartsTrapDef def) {
+        try {
+            return ConversionResult.of(def, convert(def));
+        } catch (RuntimeException e) {
+            return ConversionResult.failed(def, e);
+        }
     }
 
-    private Event buildEvent(SmartsTrapDef def, String state, Integer varbindIndex, String varbindValue) {
+    /**
+     * Converts the definition.
+     *
+     * A definition whose state references variables leads to one event for each combination of the
+     * mapped values of the variables, or to none if it has more combinations than the maximum.
+     */
+    public List<Event> convert(SmartsTrapDef def) {
+        final Fragments fragments = new Fragments(def);
+        if (def.getState() == null || !SmartsTemplate.compile(def.getState()).hasVariables()) {
+            // The state doesn't reference any variables, so it must be static
+            return Lists.newArrayList(buildEvent(def, fragments, def.getStateValue(), null));
+        } else {
+            // There are 1+ variables reference in the state
+            return handleDefWithDynamicState(def, fragments);
+        }
+    }
+
+    private List<Event> handleDefWithDynamicState(SmartsTrapDef def, Fragments fragments) {
+        final StateExpansion expansion = StateExpansion.of(def);
+        if (expansion.size() > maxStateCombinations) {
+            LOG.warn("Skipping {}: its state has {} combinations of {}, more than the maximum of {}.",
+                    def.getEventName(), expansion.size(), expansion.getVariables(), maxStateCombinations);
+            expansionStats.recordSkipped(def.getEventName(), expansion.size());
+            return new ArrayList<>();
+        }
+        expansionStats.record(expansion.size());
+        // The combinations are generated as the events are built, they are never all held at once
+        return expansion.stream()
+                .map(combination -> buildEvent(def, fragments, SmartsTrapDef.State.parse(combination.getState()), combination))
+                .collect(Collectors.toList());
+    }
+
+    private Event buildEvent(SmartsTrapDef def, Fragments fragments, SmartsTrapDef.State stateValue, StateExpansion.Combination combination) {
         Integer alarmType = null;
-        if (state != null) {
-            switch(state.toUpperCase()) {
-                case "NOTIFY":
-                    alarmType = 1;
-                    break;
-                case "CLEAR":
-                    alarmType = 2;
-                    break;
-            }
+        if (stateValue == SmartsTrapDef.State.NOTIFY) {
+            alarmType = 1;
+        } else if (stateValue == SmartsTrapDef.State.CLEAR) {
+            alarmType = 2;
         }
 
         boolean isDurable = true;
-        if ("MOMENTARY".equals(def.getEventType()) &&
+        if (def.getEventTypeValue() == SmartsTrapDef.EventType.MOMENTARY &&
                 alarmType != null && alarmType == 1) {
             // If the event is marked as momentary, it normally doesn't have any clear
             alarmType = 3;
@@ -140,17 +235,18 @@ public class Converter {
         Event e = new Event();
         Mask mask = new Mask();
         e.setMask(mask);
-        addMaskElementWithValue(mask, "id", formatEnterprise(def.getEnterprise()));
-        addMaskElementWithValue(mask, "generic", def.getTrapNumber());
-        addMaskElementWithValue(mask, "specific", def.getSpecific());
+        for (Maskelement maskelement : fragments.maskelements) {
+            mask.addMaskelement(maskelement);
+        }
 
+        final String eventText = replaceVariables(def.getEventText());
         e.setUei(String.format("%s/%s", ueiPrefix, eventName));
         e.setEventLabel("SMARTS: " + eventName);
-        e.setDescr(replaceVariables(def.getEventText()));
+        e.setDescr(eventText);
 
         Logmsg logmsg = new Logmsg();
         logmsg.setDest(LogDestType.LOGNDISPLAY);
-        logmsg.setContent(replaceVariables(def.getEventText()));
+        logmsg.setContent(eventText);
         if (Strings.isNullOrEmpty(logmsg.getContent())) {
             LOG.warn("No log message for {}.", def.getEventName());
         }
@@ -159,97 +255,72 @@ public class Converter {
         e.setSeverity(getSeverity(def));
 
         if (alarmType != null) {
+            final String reductionKeyPart = toReductionKeyPart(def.getInstanceName());
             AlarmData alarmData = new AlarmData();
             alarmData.setAlarmType(alarmType);
-            alarmData.setReductionKey("%uei%:%dpname%:%nodeid%:" + toReductionKeyPart(def.getInstanceName()));
+            alarmData.setReductionKey("%uei%:%dpname%:%nodeid%:" + reductionKeyPart);
             alarmData.setAutoClean(false);
             if (alarmType == 2) {
                 e.setSeverity("Normal");
-                alarmData.setClearKey(ueiToClear + ":%dpname%:%nodeid%:" + toReductionKeyPart(def.getInstanceName()));
+                alarmData.setClearKey(ueiToClear + ":%dpname%:%nodeid%:" + reductionKeyPart);
             }
             e.setAlarmData(alarmData);
         }
 
-        if (def.getClassName() != null) {
-            Parameter classNameParm = new Parameter();
-            classNameParm.setName("className");
-            classNameParm.setValue(def.getClassName());
-            classNameParm.setExpand(false);
-            e.getParameters().add(classNameParm);
-        }
-
-        if (varbindIndex != null && varbindValue != null) {
-            Varbind varbind = new Varbind();
-            varbind.setVbnumber(varbindIndex);
-            varbind.setVbvalues(Collections.singletonList(varbindValue));
-            mask.getVarbinds().add(varbind);
+        if (fragments.classNameParm != null) {
+            e.getParameters().add(fragments.classNameParm);
         }
 
-        for (Map.Entry<String, Map<String, String>> entry : def.getMap().entrySet()) {
-            final String key = entry.getKey();
-            final Map<String, String> mappings = entry.getValue();
-
-            final String parmId = toParmId(key);
-            Varbindsdecode varbindsDecode = new Varbindsdecode();
-            varbindsDecode.setParmid(parmId);
-            for (Map.Entry<String, String> decodeMapping : mappings.entrySet()) {
-                Decode decode = new Decode();
-                decode.setVarbindvalue(decodeMapping.getKey());
-                decode.setVarbinddecodedstring(decodeMapping.getValue());
-                varbindsDecode.getDecodes().add(decode);
+        if (combination != null) {
+            for (int i = 0; i < combination.size(); i++) {
+                final Integer varbindIndex = combination.getVarbindIndex(i);
+                final String varbindValue = combination.getValue(i);
+                if (varbindIndex != null && varbindValue != null) {
+                    Varbind varbind = new Varbind();
+                    varbind.setVbnumber(varbindIndex);
+                    varbind.setVbvalues(Collections.singletonList(varbindValue));
+                    mask.getVarbinds().add(varbind);
+                }
             }
-            e.getVarbindsdecodes().add(varbindsDecode);
         }
 
+        e.getVarbindsdecodes().addAll(fragments.varbindsdecodes);
+
         return e;
     }
 
     protected static String toReductionKeyPart(String val) {
-        final String replacedVal = replaceVariables(val);
-        if (replacedVal == null) {
+        if (val == null) {
             return "";
-        } else {
-            return replacedVal.replaceAll("<->", ":")
-                    .replaceAll("/", ":");
         }
+        return SmartsTemplate.compile(val).renderReductionKeyPart();
     }
 
+    /**
+     * Replaces the Smarts variables with the corresponding OpenNMS parameters:
+     *
+     * <pre>
+     * SRC           Source address of device sending the trap
+     * A             Address of agent sending the trap
+     * C             Community string of the trap
+     * SYS           Name of the system sending the trap
+     * T             Time the trap was sent
+     * E             Enterprise OID
+     * N             Trap number
+     * S             Specific number
+     * Vn            Variable n, where n is a number, e.g. $V1$ for the first
+     *               varbind. $V*$ matches all varbinds.
+     * OIDn          Variable n, where n is a number, e.g. $OID1$ for the first
+     *               Oid. $OID*$ matches all Oids.
+     * </pre>
+     *
+     * Each distinct value is only tokenized once, see {@link SmartsTemplate}.
+     */
     protected static String replaceVariables(String val) {
         if (val == null) {
             return null;
         }
-
-        /*
-        # SRC           Source address of device sending the trap
-        # A             Address of agent sending the trap
-        # C             Community string of the trap (NOTE: trap adapter must be
-        #               started with the --community switch in order to use this
-        #               variable.)
-        # SYS           Name of the system sending the trap
-        # T             Time the trap was sent
-        # E             Enterprise OID
-        # N             Trap number
-        # S             Specific number
-        # Vn            Variable n, where n is a number, e.g. $V1$ for the first
-        #               varbind. $V*$ matches all varbinds.
-        # OIDn          Variable n, where n is a number, e.g. $OID1$ for the first
-        #               Oid. $OID*$ matches all Oids.
-        */
-        final StringBuffer sb = new StringBuffer();
-        final Matcher m = s_variableSubsitutionPattern.matcher(val);
-        while (m.find()) {
-            final String token = m.group(1);
-            final String parmIdFromToken = toParmId(token);
-            final String replacement;
-            if (!Objects.equals(token, parmIdFromToken)) {
-                replacement = "%" + parmIdFromToken + "%";
-            } else {
-                replacement = token;
-            }
-            m.appendReplacement(sb, replacement);
-        }
-        m.appendTail(sb);
-        return sb.toString();
+        return SmartsTemplate.compile(val).render();
     }
 
     protected static String toParmId(String val) {
@@ -311,11 +382,59 @@ public class Converter {
         }
     }
 
-    private static void addMaskElementWithValue(Mask mask, String mename, String... values) {
+    private static Maskelement newMaskElementWithValue(String mename, String... values) {
         Maskelement eid = new Maskelement();
         eid.setMename(mename);
         eid.setMevalues(Lists.newArrayList(values));
-        mask.addMaskelement(eid);
+        return eid;
+    }
+
+    private static List<Varbindsdecode> toVarbindsdecodes(Map<String, Map<String, String>> map) {
+        final List<Varbindsdecode> varbindsdecodes = new ArrayList<>(map.size());
+        for (Map.Entry<String, Map<String, String>> entry : map.entrySet()) {
+            final String key = entry.getKey();
+            final Map<String, String> mappings = entry.getValue();
+
+            final String parmId = toParmId(key);
+            Varbindsdecode varbindsDecode = new Varbindsdecode();
+            varbindsDecode.setParmid(parmId);
+            for (Map.Entry<String, String> decodeMapping : mappings.entrySet()) {
+                Decode decode = new Decode();
+                decode.setVarbindvalue(decodeMapping.getKey());
+                decode.setVarbinddecodedstring(decodeMapping.getValue());
+                varbindsDecode.getDecodes().add(decode);
+            }
+            varbindsdecodes.add(varbindsDecode);
+        }
+        return Collections.unmodifiableList(varbindsdecodes);
+    }
+
+    /**
+     * The parts of the events that are the same for all of the events generated from a definition.
+     * They are built once and shared by reference between the events, which serialize them
+     * the same way as they would separate copies, so they must not be modified.
+     */
+    private final class Fragments {
+        private final List<Maskelement> maskelements;
+        private final Parameter classNameParm;
+        private final List<Varbindsdecode> varbindsdecodes;
+
+        private Fragments(SmartsTrapDef def) {
+            maskelements = Arrays.asList(
+                    newMaskElementWithValue("id", formatEnterprise(def.getEnterprise())),
+                    newMaskElementWithValue("generic", def.getTrapNumber()),
+                    newMaskElementWithValue("specific", def.getSpecific()));
+            classNameParm = def.getClassName() != null ? classNameParms.computeIfAbsent(def.getClassName(), className -> {
+                Parameter parm = new Parameter();
+                parm.setName("className");
+                parm.setValue(className);
+                parm.setExpand(false);
+                return parm;
+            }) : null;
+            // Definitions that inherit their map from the defaults share the same map instance
+            varbindsdecodes = def.getMap().isEmpty() ? Collections.emptyList()
+                    : varbindsdecodesByMap.getUnchecked(def.getMap());
+        }
     }
 
 }
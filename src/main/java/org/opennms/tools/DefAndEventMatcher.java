@@ -29,15 +29,33 @@
 package org.opennms.tools;
 
 import com.google.common.base.Strings;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import org.opennms.netmgt.config.DefaultEventConfDao;
-import org.opennms.netmgt.model.events.EventBuilder;
 import org.opennms.netmgt.xml.eventconf.Event;
+import org.opennms.netmgt.xml.eventconf.Events;
+import org.opennms.netmgt.xml.eventconf.Mask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import static org.opennms.tools.OpenNMSEvents.getFirstOrNull;
@@ -45,95 +63,436 @@ import static org.opennms.tools.SmartsOidUtils.getMatchingOid;
 
 /**
  * Attempts to match Smarts trap definitions to the corresponding OpenNMS events
+ *
+ * The events are indexed by their id, generic and specific mask elements, and by
+ * the prefixes of their ids, when the matcher is created. Mask values starting with a "~" are regular
+ * expressions, as in OpenNMS, and are compiled once. When there is no exact match,
+ * the event that OpenNMS itself would match first is used, see {@link DefaultEventConfDao#findByEvent}. The matcher should be reused
+ * for all of the definitions matched against the same events.
+ *
+ * The matcher is immutable once created, apart from its internal cache of fallback
+ * lookups and its statistics, and is safe to use from multiple threads.
+ * It only reads the events while it is being created, so the events may be
+ * reloaded or modified afterwards, but the matcher will not see the changes. The lists
+ * of events in the results are immutable, but the events
+ * they contain are shared and must not be modified while definitions are being matched.
  */
 public class DefAndEventMatcher {
     private static final Logger LOG = LoggerFactory.getLogger(DefAndEventMatcher.class);
-    private final DefaultEventConfDao eventConfDao;
+    private static final Set<String> MATCHED_MASK_ELEMENTS = ImmutableSet.of("id", "generic", "specific");
+    private static final int FALLBACK_CACHE_SIZE = 10000;
+    private final ImmutableListMultimap<TrapKey, Event> eventsByMask;
+    private final OidTrie<Candidate> candidatesById;
+    private final List<Candidate> candidatesWithoutId;
+    private final List<Candidate> candidatesWithRegexId;
+    private final Map<String, Pattern> regexes;
+    private final MatchStats stats = new MatchStats();
+    private final LoadingCache<TrapKey, List<Event>> fallbackCandidates = CacheBuilder.newBuilder()
+            .maximumSize(FALLBACK_CACHE_SIZE)
+            .recordStats()
+            .build(CacheLoader.from(this::findAllMatching));
 
     public DefAndEventMatcher(DefaultEventConfDao eventConfDao) {
-        this.eventConfDao = Objects.requireNonNull(eventConfDao);
+        this(eventConfDao.getAllEvents());
+    }
+
+    /**
+     * Matches against the given events directly, without loading them through a DAO.
+     */
+    public DefAndEventMatcher(Events events) {
+        this(events.getEvents());
     }
 
-    public List<Event> getMatchingEvents(SmartsTrapDef def) {
+    /**
+     * Treats the events as if they were all declared in a single file.
+     */
+    public DefAndEventMatcher(List<Event> events) {
+        this(Collections.singletonMap(null, events));
+    }
+
+    /**
+     * @param eventsByFile the events of each file, in the order in which the files are loaded by
+     *                     OpenNMS, see {@link EventConfLoader#loadByFile(java.io.File)}
+     */
+    public DefAndEventMatcher(Map<String, List<Event>> eventsByFile) {
+        Objects.requireNonNull(eventsByFile);
+        final List<Event> events = new ArrayList<>();
+        eventsByFile.values().forEach(events::addAll);
+        this.eventsByMask = indexEventsByMask(events);
+
+        final List<Candidate> candidates = getCandidatesInMatchingOrder(eventsByFile.values());
+        this.candidatesById = indexCandidatesById(candidates);
+        this.candidatesWithoutId = candidates.stream()
+                .filter(c -> c.event.getMaskElementValues("id") == null)
+                .collect(Collectors.toList());
+        this.candidatesWithRegexId = candidates.stream()
+                .filter(c -> getIds(c.event).stream().anyMatch(DefAndEventMatcher::isRegex))
+                .collect(Collectors.toList());
+        this.regexes = compileRegexes(candidates);
+    }
+
+    private static ImmutableListMultimap<TrapKey, Event> indexEventsByMask(List<Event> events) {
+        final ImmutableListMultimap.Builder<TrapKey, Event> builder = ImmutableListMultimap.builder();
+        for (Event e : events) {
+            builder.put(new TrapKey(getFirstOrNull(e, "id"), getFirstOrNull(e, "generic"), getFirstOrNull(e, "specific")), e);
+        }
+        final ImmutableListMultimap<TrapKey, Event> eventsByMask = builder.build();
+        LOG.debug("Indexed {} events by {} distinct masks.", events.size(), eventsByMask.keySet().size());
+        return eventsByMask;
+    }
+
+    /**
+     * Statistics of the cache of fallback lookups, which are used when a definition
+     * has no exact match. Negative results are cached too.
+     */
+    public CacheStats getFallbackStats() {
+        return fallbackCandidates.stats();
+    }
+
+    /**
+     * Tries each of the strategies in turn, until one of them matches.
+     */
+    public MatchResult match(SmartsTrapDef def) {
+        return matchAll(Collections.singletonList(def)).get(def);
+    }
+
+    /**
+     * Matches all of the definitions at once. Each distinct enterprise is only normalized
+     * once per batch, and the fallback lookups go through the matcher's cache, so definitions
+     * that share a normalized signature are only looked up once, across all batches.
+     *
+     * @return the results, in the same order as the definitions. Duplicate definitions are only matched once.
+     */
+    public Map<SmartsTrapDef, MatchResult> matchAll(Collection<SmartsTrapDef> defs) {
+        final Map<String, Enterprise> enterprises = new HashMap<>();
+        final Map<SmartsTrapDef, MatchResult> results = new LinkedHashMap<>();
+        for (SmartsTrapDef def : defs) {
+            if (results.containsKey(def)) {
+                continue;
+            }
+            final Enterprise enterprise = enterprises.computeIfAbsent(def.getEnterprise(), Enterprise::new);
+            results.put(def, match(def, enterprise));
+        }
+        LOG.debug("Matched {} definitions with {} distinct enterprises.", results.size(), enterprises.size());
+        return ImmutableMap.copyOf(results);
+    }
+
+    /**
+     * The normalized enterprise that the fallback strategies look up, i.e. ".1.3.6.1.4.1.9.0" for
+     * ".1.3.6.1.4.1.9.*", or null if the definition matches any enterprise, or if its enterprise
+     * has wildcards that cannot be looked up by prefix.
+     */
+    public static String getEffectiveEnterprise(SmartsTrapDef def) {
+        final Enterprise enterprise = new Enterprise(def.getEnterprise());
+        return enterprise.normalize() ? enterprise.effective : null;
+    }
+
+    /**
+     * Finds all of the events that OpenNMS could match to a trap of the definition, whether or not
+     * they would be the first to match, in the order in which OpenNMS tries them. Unlike
+     * {@link #match(SmartsTrapDef)}, this includes the EnterpriseDefault events.
+     *
+     * @return the candidates, or an empty list if the definition has wildcards that cannot be looked up by prefix
+     */
+    public List<Event> findCandidates(SmartsTrapDef def) {
+        final Enterprise enterprise = new Enterprise(def.getEnterprise());
+        final String trapNumber;
+        final String specific;
+        try {
+            trapNumber = Strings.emptyToNull(getMatchingOid(def.getTrapNumber()));
+            specific = Strings.emptyToNull(getMatchingOid(def.getSpecific()));
+        } catch (IllegalArgumentException e) {
+            return Collections.emptyList();
+        }
+        if (!enterprise.normalize()) {
+            return Collections.emptyList();
+        }
+        final List<Event> candidates = new ArrayList<>(getFallbackCandidates(enterprise.withoutTrailingZero, trapNumber, specific));
+        if (!Objects.equals(enterprise.withoutTrailingZero, enterprise.effective)) {
+            final Set<Event> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            seen.addAll(candidates);
+            for (Event event : getFallbackCandidates(enterprise.effective, trapNumber, specific)) {
+                if (seen.add(event)) {
+                    candidates.add(event);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    private MatchResult match(SmartsTrapDef def, Enterprise enterprise) {
         // Try matching the exact enterprise, generic and specific
-        List<Event> matches = match(def.getEnterprise(), def.getTrapNumber(), def.getSpecific());
-        if (matches.size() > 0) {
-            return matches;
+        long start = System.nanoTime();
+        List<Event> matches = eventsByMask.get(def.getKey());
+        if (record(MatchStrategy.EXACT, matches, start)) {
+            return MatchResult.of(matches, MatchStrategy.EXACT);
         }
         // Next, try matching the formatted enterprise, generic and specific
         // (This will help match event definitions containing wildcards that we generated)
-        matches = match(Converter.formatEnterprise(def.getEnterprise()), def.getTrapNumber(), def.getSpecific());
-        if (matches.size() > 0) {
-            return matches;
+        if (enterprise.formatted != null) {
+            start = System.nanoTime();
+            matches = match(enterprise.formatted, def.getTrapNumber(), def.getSpecific());
+            if (record(MatchStrategy.FORMATTED_ENTERPRISE, matches, start)) {
+                return MatchResult.of(matches, MatchStrategy.FORMATTED_ENTERPRISE);
+            }
+        }
+        // The prefix strategies only support a trailing wildcard, i.e. ".1.3.6.1.4.1.9.*"
+        final String trapNumber;
+        final String specific;
+        try {
+            trapNumber = Strings.emptyToNull(getMatchingOid(def.getTrapNumber()));
+            specific = Strings.emptyToNull(getMatchingOid(def.getSpecific()));
+        } catch (IllegalArgumentException e) {
+            LOG.debug("Not matching {} by prefix: {}", def, e.getMessage());
+            return MatchResult.noMatch();
         }
-        // There was no direct match, try searching using a generated event
-        org.opennms.netmgt.xml.event.Event event = generateCorrepsondingEvent(def, true);
-        org.opennms.netmgt.xml.eventconf.Event eventConf = eventConfDao.findByEvent(event);
-        if (eventConf != null && !isEnterpriseDefault(eventConf)) {
-            return Collections.singletonList(eventConf);
+        if (!enterprise.normalize()) {
+            LOG.debug("Not matching {} by prefix: unsupported enterprise.", def);
+            return MatchResult.noMatch();
+        }
+        // There was no direct match, try searching for masks that match the enterprise as a prefix
+        start = System.nanoTime();
+        matches = findByMaskPrefix(enterprise.withoutTrailingZero, trapNumber, specific);
+        if (record(MatchStrategy.PREFIX_WITHOUT_TRAILING_ZERO, matches, start)) {
+            return MatchResult.of(matches, MatchStrategy.PREFIX_WITHOUT_TRAILING_ZERO);
         }
         // Try it without the trailing dot
-        event = generateCorrepsondingEvent(def, false);
-        eventConf = eventConfDao.findByEvent(event);
-        if (eventConf != null && !isEnterpriseDefault(eventConf)) {
-            return Collections.singletonList(eventConf);
+        start = System.nanoTime();
+        matches = findByMaskPrefix(enterprise.effective, trapNumber, specific);
+        if (record(MatchStrategy.PREFIX, matches, start)) {
+            return MatchResult.of(matches, MatchStrategy.PREFIX);
+        }
+        return MatchResult.noMatch();
+    }
+
+    private boolean record(MatchStrategy strategy, List<Event> matches, long start) {
+        final boolean matched = !matches.isEmpty();
+        stats.record(strategy, matched, System.nanoTime() - start);
+        return matched;
+    }
+
+    /**
+     * The number of attempts, matches and the time spent in each of the strategies so far.
+     */
+    public MatchStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Lists the events that can match a definition on its own, in the order in which OpenNMS tries them.
+     * Events that also match on other mask elements or on varbinds are left out, since an event generated
+     * from a definition only has an id, a generic and a specific number.
+     *
+     * OpenNMS goes through the files in turn and, in each file, tries the events whose ids are all exact
+     * before the events with wildcards in their ids or without ids at all.
+     */
+    private static List<Candidate> getCandidatesInMatchingOrder(Collection<List<Event>> eventsByFile) {
+        final List<Candidate> candidates = new ArrayList<>();
+        for (List<Event> events : eventsByFile) {
+            final List<Event> partitioned = new ArrayList<>();
+            final List<Event> unpartitioned = new ArrayList<>();
+            for (Event e : events) {
+                final Mask mask = e.getMask();
+                if (mask == null || !mask.getVarbinds().isEmpty() || mask.getMaskelements().stream()
+                        .anyMatch(me -> !MATCHED_MASK_ELEMENTS.contains(me.getMename()))) {
+                    continue;
+                }
+                (hasExactIds(e) ? partitioned : unpartitioned).add(e);
+            }
+            partitioned.forEach(e -> candidates.add(new Candidate(e, candidates.size())));
+            unpartitioned.forEach(e -> candidates.add(new Candidate(e, candidates.size())));
         }
-        return Collections.emptyList();
+        return candidates;
+    }
+
+    private static boolean hasExactIds(Event e) {
+        final List<String> ids = getIds(e);
+        return !ids.isEmpty() && ids.stream().noneMatch(id -> id.endsWith("%") || isRegex(id));
+    }
+
+    private static List<String> getIds(Event e) {
+        final List<String> ids = e.getMaskElementValues("id");
+        return ids != null ? ids : Collections.emptyList();
+    }
+
+    /**
+     * Mask values starting with a "~" are regular expressions, which must match the whole value.
+     */
+    private static boolean isRegex(String maskValue) {
+        return maskValue.startsWith("~");
+    }
+
+    /**
+     * Indexes the candidates by the values of their id mask element, so that the events
+     * with wildcards can be found by prefix. Regular expressions are left out.
+     */
+    private static OidTrie<Candidate> indexCandidatesById(List<Candidate> candidates) {
+        final OidTrie<Candidate> trie = new OidTrie<>();
+        for (Candidate c : candidates) {
+            for (String id : getIds(c.event)) {
+                if (!isRegex(id)) {
+                    trie.put(id, c);
+                }
+            }
+        }
+        LOG.debug("Indexed {} event ids.", trie.size());
+        return trie;
+    }
+
+    /**
+     * Compiles the regular expressions of the candidates' mask elements once, since the same
+     * ones are evaluated for every fallback lookup.
+     */
+    private static Map<String, Pattern> compileRegexes(List<Candidate> candidates) {
+        final Map<String, Pattern> regexes = new HashMap<>();
+        for (Candidate c : candidates) {
+            for (String name : MATCHED_MASK_ELEMENTS) {
+                final List<String> maskValues = c.event.getMaskElementValues(name);
+                if (maskValues != null) {
+                    maskValues.stream()
+                            .filter(DefAndEventMatcher::isRegex)
+                            .forEach(v -> regexes.computeIfAbsent(v, r -> Pattern.compile(r.substring(1))));
+                }
+            }
+        }
+        return regexes;
+    }
+
+    /**
+     * Finds the events whose masks match the given enterprise, which may be null, in the order in which OpenNMS tries them.
+     */
+    private List<Candidate> getCandidatesByEnterprise(String enterprise) {
+        final List<Candidate> candidates = new ArrayList<>(candidatesById.find(enterprise));
+        candidates.addAll(candidatesWithoutId);
+        for (Candidate c : candidatesWithRegexId) {
+            for (String id : getIds(c.event)) {
+                if (isRegex(id) && matchesRegex(id, enterprise)) {
+                    candidates.add(c);
+                }
+            }
+        }
+        candidates.sort(Comparator.comparingInt(c -> c.order));
+        return candidates;
     }
 
     private List<Event> match(String enterprise, String trapNumer, String specific) {
-        final String defKey = String.format("%s/%s/%s", enterprise, trapNumer, specific);
-        return eventConfDao.getAllEvents().stream()
-                .filter(e -> {
-                    final String eventKey = String.format("%s/%s/%s",
-                            getFirstOrNull(e, "id"), getFirstOrNull(e, "generic"), getFirstOrNull(e, "specific"));
-                    return defKey.equals(eventKey);
-                })
-                .collect(Collectors.toList());
+        return eventsByMask.get(new TrapKey(enterprise, trapNumer, specific));
     }
 
-    private static boolean isEnterpriseDefault(org.opennms.netmgt.xml.eventconf.Event event) {
+    static boolean isEnterpriseDefault(Event event) {
         return event.getUei() != null && event.getUei().endsWith("EnterpriseDefault");
     }
 
     /**
-     * Given some definition, generate an event that would match the filter.
-     *
-     * @param smartsTrapDef
-     * @return
+     * Finds the event that OpenNMS would match first, given an event generated from the definition,
+     * which only has an enterprise, a generic and a specific number.
      */
-    private static org.opennms.netmgt.xml.event.Event generateCorrepsondingEvent(SmartsTrapDef def, boolean removeLastPortionOfEnterprise) {
-        final EventBuilder eventBuilder = new EventBuilder(null, "smarter");
+    private List<Event> findByMaskPrefix(String enterprise, String trapNumber, String specific) {
+        final List<Event> candidates = getFallbackCandidates(enterprise, trapNumber, specific);
+        if (candidates.isEmpty() || isEnterpriseDefault(candidates.get(0))) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(candidates.get(0));
+    }
 
-        final String enterprise = getMatchingOid(def.getEnterprise());
-        if (!Strings.isNullOrEmpty(enterprise)) {
-            final String betterEnterprise;
-            if (!enterprise.startsWith(".")) {
-                // Prepend a "." if missing
-                betterEnterprise = "." + enterprise;
-            } else {
-                betterEnterprise = enterprise;
+    private List<Event> getFallbackCandidates(String enterprise, String trapNumber, String specific) {
+        // Many definitions share the same normalized signature, so the results are cached
+        return fallbackCandidates.getUnchecked(new TrapKey(enterprise, trapNumber, specific));
+    }
+
+    private List<Event> findAllMatching(TrapKey signature) {
+        final ImmutableList.Builder<Event> matches = ImmutableList.builder();
+        Candidate previous = null;
+        for (Candidate candidate : getCandidatesByEnterprise(signature.getEnterprise())) {
+            // Events with several matching ids are found once for each of them
+            if (candidate != previous && matchesMaskElement(candidate.event, "generic", signature.getGeneric())
+                    && matchesMaskElement(candidate.event, "specific", signature.getSpecific())) {
+                matches.add(candidate.event);
             }
+            previous = candidate;
+        }
+        return matches.build();
+    }
 
-            final String effectiveEnterprise;
-            if (removeLastPortionOfEnterprise && betterEnterprise.endsWith(".0")) {
-                effectiveEnterprise = betterEnterprise.substring(0, betterEnterprise.length() - 2);
-            } else {
-                effectiveEnterprise = betterEnterprise;
+    private boolean matchesMaskElement(Event eventConf, String name, String value) {
+        final List<String> maskValues = eventConf.getMaskElementValues(name);
+        if (maskValues == null || maskValues.isEmpty()) {
+            return true;
+        }
+        for (String maskValue : maskValues) {
+            if (maskValue.endsWith("%")) {
+                if (value != null && value.startsWith(maskValue.substring(0, maskValue.length() - 1))) {
+                    return true;
+                }
+            } else if (isRegex(maskValue)) {
+                if (matchesRegex(maskValue, value)) {
+                    return true;
+                }
+            } else if (maskValue.equals(value)) {
+                return true;
             }
-            eventBuilder.setEnterpriseId(effectiveEnterprise);
         }
+        return false;
+    }
+
+    private boolean matchesRegex(String maskValue, String value) {
+        return value != null && regexes.get(maskValue).matcher(value).matches();
+    }
+
+    private static final class Candidate {
+        private final Event event;
+        private final int order;
 
-        final String trapNumber = getMatchingOid(def.getTrapNumber());
-        if (!Strings.isNullOrEmpty(trapNumber)) {
-            eventBuilder.setGeneric(Integer.parseInt(trapNumber));
+        private Candidate(Event event, int order) {
+            this.event = event;
+            this.order = order;
         }
+    }
+
+    /**
+     * The different forms of a definition's enterprise used by the strategies.
+     *
+     * The forms used by the prefix strategies are only computed once they are needed, since most
+     * definitions match exactly and since some enterprises cannot be normalized at all.
+     * The enterprises are only shared within a batch, so this is not synchronized.
+     */
+    private static final class Enterprise {
+        private final String enterprise;
+        private final String formatted;
+        private Boolean supported;
+        private String effective;
+        private String withoutTrailingZero;
 
-        final String specific = getMatchingOid(def.getSpecific());
-        if (!Strings.isNullOrEmpty(specific)) {
-            eventBuilder.setSpecific(Integer.parseInt(specific));
+        private Enterprise(String enterprise) {
+            this.enterprise = enterprise;
+            final String formattedEnterprise = enterprise != null ? Converter.formatEnterprise(enterprise) : null;
+            formatted = Objects.equals(formattedEnterprise, enterprise) ? null : formattedEnterprise;
         }
 
-        return eventBuilder.getEvent();
+        /**
+         * Computes the forms used by the prefix strategies, on first use.
+         *
+         * @return false if the enterprise contains "any" or a "*" other than a trailing one,
+         * in which case it cannot be matched by prefix
+         */
+        private boolean normalize() {
+            if (supported != null) {
+                return supported;
+            }
+            final String matchingOid;
+            try {
+                matchingOid = getMatchingOid(enterprise);
+            } catch (IllegalArgumentException e) {
+                supported = false;
+                return false;
+            }
+            if (!Strings.isNullOrEmpty(matchingOid)) {
+                // Prepend a "." if missing
+                effective = matchingOid.startsWith(".") ? matchingOid : "." + matchingOid;
+                withoutTrailingZero = effective.endsWith(".0") ? effective.substring(0, effective.length() - 2) : effective;
+            }
+            supported = true;
+            return true;
+        }
     }
 }
@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+
+import org.opennms.netmgt.xml.eventconf.Event;
+import org.opennms.netmgt.xml.eventconf.Events;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+
+/**
+ * Loads the events from eventconf.xml and from all of the event files it includes.
+ *
+ * The included files are independent of one another, so they are unmarshalled in parallel,
+ * each thread using its own unmarshaller. The events are then assembled in the order in which
+ * the files are declared, the same order in which DefaultEventConfDao returns them.
+ */
+public class EventConfLoader {
+    private static final Logger LOG = LoggerFactory.getLogger(EventConfLoader.class);
+    private static final String CLASSPATH_PREFIX = "classpath:";
+
+    private final JAXBContext context;
+    private final ThreadLocal<Unmarshaller> unmarshaller;
+    private int threads = 1;
+    private EventConfSnapshotCache snapshotCache;
+    private final AtomicInteger snapshotHits = new AtomicInteger();
+
+    public EventConfLoader() {
+        try {
+            context = JAXBContext.newInstance(Events.class);
+        } catch (JAXBException e) {
+            throw new IllegalStateException("Failed to create the JAXB context for the events.", e);
+        }
+        // Unmarshallers are not thread-safe, but the context is
+        unmarshaller = ThreadLocal.withInitial(() -> {
+            try {
+                return context.createUnmarshaller();
+            } catch (JAXBException e) {
+                throw new IllegalStateException("Failed to create an unmarshaller for the events.", e);
+            }
+        });
+    }
+
+    /**
+     * Sets the number of threads used to load the included event files.
+     *
+     * @param threads 1 to load sequentially, 0 or less to use all of the available cores
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the cache used to keep snapshots of the event files between runs.
+     * Only the files that changed since their snapshot was taken are unmarshalled.
+     */
+    public void setSnapshotCache(EventConfSnapshotCache snapshotCache) {
+        this.snapshotCache = snapshotCache;
+    }
+
+    /**
+     * @return the events defined in eventconf.xml followed by the events of each included file
+     */
+    public List<Event> load(File eventconf) throws IOException {
+        final List<Event> events = new ArrayList<>();
+        loadByFile(eventconf).values().forEach(events::addAll);
+        return events;
+    }
+
+    /**
+     * Loads the events, keeping track of the file in which each of them is defined.
+     *
+     * @return the events keyed by the name of eventconf.xml for its own events, and by the
+     * name with which each included file is declared for the others, in declared order
+     */
+    public Map<String, List<Event>> loadByFile(File eventconf) throws IOException {
+        snapshotHits.set(0);
+        final Events root = loadEvents(eventconf);
+        final List<File> includes = new ArrayList<>(root.getEventFiles().size());
+        for (String eventFile : root.getEventFiles()) {
+            includes.add(resolve(eventconf, eventFile));
+        }
+
+        final List<Events> includedEvents;
+        if (threads == 1) {
+            includedEvents = new ArrayList<>(includes.size());
+            for (File include : includes) {
+                includedEvents.add(loadInclude(include));
+            }
+        } else {
+            final ForkJoinPool pool = new ForkJoinPool(ParallelUtils.getEffectiveThreads(threads));
+            try {
+                includedEvents = ParallelUtils.map(pool, includes, include -> {
+                    try {
+                        return loadInclude(include);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        final Map<String, List<Event>> eventsByFile = new LinkedHashMap<>();
+        eventsByFile.put(eventconf.getName(), new ArrayList<>(root.getEvents()));
+        int numEvents = root.getEvents().size();
+        for (int i = 0; i < includes.size(); i++) {
+            final List<Event> included = includedEvents.get(i).getEvents();
+            eventsByFile.computeIfAbsent(root.getEventFiles().get(i), f -> new ArrayList<>()).addAll(included);
+            numEvents += included.size();
+        }
+        LOG.info("Loaded {} events from {} and {} included files, {} of the {} files were unchanged.",
+                numEvents, eventconf, includes.size(), snapshotHits.get(), includes.size() + 1);
+        return eventsByFile;
+    }
+
+    /**
+     * Loads the events from a single included file.
+     */
+    protected Events loadInclude(File include) throws IOException {
+        final Events events = loadEvents(include);
+        if (!events.getEventFiles().isEmpty()) {
+            throw new IOException("Event file " + include + " includes other event files, which is not allowed.");
+        }
+        return events;
+    }
+
+    private Events loadEvents(File file) throws IOException {
+        if (snapshotCache == null) {
+            return unmarshal(file);
+        }
+
+        // The file is only hashed once, before it is unmarshalled
+        final EventConfSnapshotCache.Fingerprint fingerprint = snapshotCache.fingerprint(file);
+        final Events snapshot = snapshotCache.get(file, fingerprint);
+        if (snapshot != null) {
+            snapshotHits.incrementAndGet();
+            return snapshot;
+        }
+        final Events events = unmarshal(file);
+        try {
+            snapshotCache.put(file, fingerprint, events);
+        } catch (IOException e) {
+            LOG.warn("Failed to store a snapshot of {}.", file, e);
+        }
+        return events;
+    }
+
+    protected Events unmarshal(File file) throws IOException {
+        try {
+            return (Events) unmarshaller.get().unmarshal(file);
+        } catch (JAXBException e) {
+            throw new IOException("Failed to load the events from " + file, e);
+        }
+    }
+
+    /**
+     * Resolves the included files like DefaultEventConfDao does: "classpath:" locations are
+     * looked up on the class path, and all other locations are relative to eventconf.xml.
+     *
+     * @throws IOException if the file does not exist on the class path, or is packaged in a jar
+     */
+    protected static File resolve(File eventconf, String eventFile) throws IOException {
+        final Resource resource = eventFile.startsWith(CLASSPATH_PREFIX)
+                ? new DefaultResourceLoader().getResource(eventFile)
+                : new FileSystemResource(eventconf.getAbsoluteFile()).createRelative(eventFile);
+        try {
+            return resource.getFile();
+        } catch (FileNotFoundException e) {
+            // Event files packaged in jars can't be snapshotted or loaded in parallel, so they are not supported
+            throw new IOException("Failed to resolve event file " + eventFile + " included from " + eventconf + ": " + e.getMessage(), e);
+        }
+    }
+}
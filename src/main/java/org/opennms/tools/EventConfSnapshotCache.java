@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Set;
+
+import org.opennms.netmgt.xml.eventconf.Events;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+/**
+ * Keeps binary snapshots of the unmarshalled event files on disk, so that event
+ * files that did not change don't need to be unmarshalled again.
+ *
+ * There is one snapshot per event file. A snapshot is only used when the path, size,
+ * last modified time and hash of the file all match the ones it was stored with.
+ *
+ * The snapshots are Java serialized, and the cache folder may be writable by others, so only
+ * the event configuration classes and the few JDK classes they use are ever deserialized.
+ * EventConfSnapshotBenchmark compares reading the snapshots with unmarshalling the files.
+ */
+public class EventConfSnapshotCache {
+    private static final Logger LOG = LoggerFactory.getLogger(EventConfSnapshotCache.class);
+
+    private static final int MAGIC = 0x534D4543;
+    private static final int FORMAT_VERSION = 1;
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final File dir;
+
+    public EventConfSnapshotCache(File dir) {
+        this.dir = Objects.requireNonNull(dir);
+    }
+
+    /**
+     * Takes the fingerprint of the file in its current state. It should be taken before the file
+     * is loaded, so that a file that changes while it is being loaded is stored with its previous
+     * fingerprint, and loaded again next time.
+     */
+    public Fingerprint fingerprint(File file) throws IOException {
+        return Fingerprint.of(file);
+    }
+
+    /**
+     * @return the events of the file from its snapshot, or null if there is no
+     *         snapshot of the file with the given fingerprint
+     */
+    public Events get(File file, Fingerprint fingerprint) throws IOException {
+        final File snapshotFile = getSnapshotFile(file);
+        if (!snapshotFile.canRead()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile), 64 * 1024))) {
+            if (in.readInt() != MAGIC
+                    || in.readInt() != FORMAT_VERSION
+                    || !fingerprint.equals(Fingerprint.read(in))) {
+                return null;
+            }
+            return (Events) new SnapshotInputStream(in).readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            LOG.warn("Failed to read the snapshot of {} from {}. The file will be loaded again.", file, snapshotFile, e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores a snapshot of the events loaded from the given file.
+     *
+     * @param fingerprint the fingerprint of the file taken before the events were loaded
+     */
+    public void put(File file, Fingerprint fingerprint, Events events) throws IOException {
+        final File snapshotFile = getSnapshotFile(file);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create cache directory: " + dir);
+        }
+
+        // Write to a temporary file first, so that a partial write never replaces a valid snapshot
+        final File tmpFile = File.createTempFile(snapshotFile.getName(), ".tmp", dir);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 64 * 1024))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                fingerprint.write(out);
+                final ObjectOutputStream objectOut = new ObjectOutputStream(out);
+                objectOut.writeObject(events);
+                objectOut.flush();
+            }
+            java.nio.file.Files.move(tmpFile.toPath(), snapshotFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            java.nio.file.Files.deleteIfExists(tmpFile.toPath());
+        }
+    }
+
+    /**
+     * Only resolves the classes that make up the events, so that a snapshot
+     * can never instantiate anything else.
+     */
+    private static class SnapshotInputStream extends ObjectInputStream {
+        private static final String EVENTCONF_PACKAGE = Events.class.getPackage().getName() + ".";
+        private static final Set<String> ALLOWED_JDK_CLASSES = ImmutableSet.of(
+                "java.lang.Boolean", "java.lang.Enum", "java.lang.Integer", "java.lang.Long",
+                "java.lang.Number", "java.lang.String");
+
+        private SnapshotInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (!isAllowed(desc.getName())) {
+                throw new InvalidClassException(desc.getName(), "Not allowed in an event snapshot");
+            }
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+            throw new InvalidClassException("Proxies are not allowed in an event snapshot");
+        }
+
+        private static boolean isAllowed(String className) {
+            // Arrays are named like "[Ljava.lang.String;", and arrays of primitives like "[I"
+            final String componentName = className.replaceFirst("^\\[+L?", "").replaceFirst(";$", "");
+            if (className.startsWith("[") && componentName.length() == 1) {
+                return true;
+            }
+            return componentName.startsWith(EVENTCONF_PACKAGE)
+                    || (componentName.startsWith("java.util.") && componentName.indexOf('.', "java.util.".length()) < 0)
+                    || ALLOWED_JDK_CLASSES.contains(componentName);
+        }
+    }
+
+    protected File getSnapshotFile(File file) {
+        final String pathHash = HASH_FUNCTION.hashString(file.getAbsolutePath(), StandardCharsets.UTF_8).toString();
+        return new File(dir, "eventconf-" + pathHash + ".bin");
+    }
+
+    /**
+     * The path, size, last modified time and hash of an event file.
+     */
+    public static final class Fingerprint {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final byte[] hash;
+
+        private Fingerprint(String path, long size, long lastModified, byte[] hash) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+
+        private static Fingerprint of(File file) throws IOException {
+            return new Fingerprint(file.getAbsolutePath(), file.length(), file.lastModified(),
+                    Files.asByteSource(file).hash(HASH_FUNCTION).asBytes());
+        }
+
+        private static Fingerprint read(DataInputStream in) throws IOException {
+            final String path = in.readUTF();
+            final long size = in.readLong();
+            final long lastModified = in.readLong();
+            final byte[] hash = new byte[in.readUnsignedByte()];
+            in.readFully(hash);
+            return new Fingerprint(path, size, lastModified, hash);
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeUTF(path);
+            out.writeLong(size);
+            out.writeLong(lastModified);
+            out.writeByte(hash.length);
+            out.write(hash);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Fingerprint that = (Fingerprint) o;
+            return size == that.size &&
+                    lastModified == that.lastModified &&
+                    Objects.equals(path, that.path) &&
+                    Arrays.equals(hash, that.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, size, lastModified, Arrays.hashCode(hash));
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.opennms.netmgt.xml.eventconf.Event;
+
+/**
+ * Writes an event file one event at a time, so that the events can be discarded as soon as they are written.
+ *
+ * The &lt;events&gt; element is written with StAX and each of the events is marshalled into it as
+ * a fragment. Only the output buffer is kept in memory, however many events are written.
+ *
+ * The events are written to a temporary file next to the target, which only replaces the target
+ * when the writer is committed. Closing a writer that was not committed deletes the temporary file,
+ * so a failure never leaves a partial file behind, nor overwrites the previous one.
+ */
+public class EventConfWriter implements Closeable {
+    public static final String NAMESPACE = "http://xmlns.opennms.org/xsd/eventconf";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final XMLOutputFactory s_outputFactory = XMLOutputFactory.newInstance();
+
+    private final File file;
+    private final File tmpFile;
+    private final OutputStream out;
+    private final XMLStreamWriter writer;
+    private final Marshaller marshaller;
+    private int numEvents = 0;
+    private boolean finished = false;
+    private boolean committed = false;
+
+    public EventConfWriter(File file) throws IOException {
+        this.file = file;
+        tmpFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        out = new BufferedOutputStream(new FileOutputStream(tmpFile), BUFFER_SIZE);
+        try {
+            marshaller = ContextHolder.CONTEXT.createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+            writer = s_outputFactory.createXMLStreamWriter(out, StandardCharsets.UTF_8.name());
+            writer.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+            writer.writeCharacters("\n");
+            writer.setDefaultNamespace(NAMESPACE);
+            writer.writeStartElement(NAMESPACE, "events");
+            writer.writeDefaultNamespace(NAMESPACE);
+        } catch (JAXBException | XMLStreamException e) {
+            out.close();
+            Files.deleteIfExists(tmpFile.toPath());
+            throw new IOException("Failed to start writing the events to " + file, e);
+        }
+    }
+
+    public void write(Event event) throws IOException {
+        try {
+            writer.writeCharacters("\n");
+            marshaller.marshal(event, writer);
+        } catch (JAXBException | XMLStreamException e) {
+            throw new IOException("Failed to write event " + event.getUei() + " to " + file, e);
+        }
+        numEvents++;
+    }
+
+    public void writeAll(Iterable<Event> events) throws IOException {
+        for (Event event : events) {
+            write(event);
+        }
+    }
+
+    /**
+     * @return the number of events written so far
+     */
+    public int getNumEvents() {
+        return numEvents;
+    }
+
+    /**
+     * Completes the file, without replacing the target yet. No more events can be written afterwards.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        try {
+            writer.writeCharacters("\n");
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to finish writing the events to " + file, e);
+        } finally {
+            // Closing the XMLStreamWriter does not close the underlying stream
+            out.close();
+        }
+    }
+
+    /**
+     * Completes the file and atomically replaces the target with it.
+     */
+    public void commit() throws IOException {
+        finish();
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        committed = true;
+    }
+
+    /**
+     * Discards the events, unless the writer was committed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (committed) {
+            return;
+        }
+        try {
+            if (!finished) {
+                finished = true;
+                out.close();
+            }
+        } finally {
+            Files.deleteIfExists(tmpFile.toPath());
+        }
+    }
+
+    /**
+     * The context is only created when the first writer is.
+     */
+    private static class ContextHolder {
+        private static final JAXBContext CONTEXT;
+
+        static {
+            try {
+                CONTEXT = JAXBContext.newInstance(Event.class);
+            } catch (JAXBException e) {
+                throw new IllegalStateException("Failed to create the JAXB context for the events.", e);
+            }
+        }
+    }
+}
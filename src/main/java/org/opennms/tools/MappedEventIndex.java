@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.opennms.netmgt.xml.eventconf.Event;
+
+/**
+ * The OpenNMS events that at least one Smarts trap definition maps to.
+ *
+ * An event counts as mapped if it was matched to a definition, or if OpenNMS could match it
+ * to a trap of the definition, even when another event would match first. This errs on the side
+ * of keeping events: a trap from an enterprise covered by a wildcard may well match an event that
+ * the definition itself was not matched to.
+ *
+ * The index is built in a single pass over the results of matching the definitions,
+ * so finding the events that no definition maps to never compares events with definitions.
+ * Events are compared by identity, since the matcher returns the loaded events themselves.
+ */
+public class MappedEventIndex {
+    private final Set<Event> mappedEvents = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * @param matcher the matcher that produced the results
+     * @param results the results of matching the definitions
+     */
+    public MappedEventIndex(DefAndEventMatcher matcher, Map<SmartsTrapDef, MatchResult> results) {
+        for (Map.Entry<SmartsTrapDef, MatchResult> entry : results.entrySet()) {
+            mappedEvents.addAll(entry.getValue().getEvents());
+            mappedEvents.addAll(matcher.findCandidates(entry.getKey()));
+        }
+    }
+
+    public boolean isMapped(Event event) {
+        return mappedEvents.contains(event);
+    }
+
+    /**
+     * @return the number of distinct events mapped to
+     */
+    public int size() {
+        return mappedEvents.size();
+    }
+
+    /**
+     * Finds the events that no definition maps to. EnterpriseDefault events are never
+     * reported, since they catch the traps that no other event matches.
+     *
+     * @param eventsByFile the events, keyed by the file in which they are defined
+     * @param ueiPrefixes only keep the events with one of these UEI prefixes, or all of them if empty
+     * @param files only keep the events defined in one of these files, or all of them if empty.
+     *              Files can be given either by the name with which they are included or by their base name.
+     * @return the unmapped events keyed by file, in the same order. Files without unmapped events are left out.
+     */
+    public Map<String, List<Event>> getUnmappedEvents(Map<String, List<Event>> eventsByFile,
+                                                      Collection<String> ueiPrefixes, Collection<String> files) {
+        final Map<String, List<Event>> unmappedEvents = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Event>> entry : eventsByFile.entrySet()) {
+            if (!files.isEmpty() && !matchesFile(entry.getKey(), files)) {
+                continue;
+            }
+            final List<Event> unmapped = new ArrayList<>();
+            for (Event event : entry.getValue()) {
+                if (!isMapped(event) && !DefAndEventMatcher.isEnterpriseDefault(event)
+                        && matchesUei(event.getUei(), ueiPrefixes)) {
+                    unmapped.add(event);
+                }
+            }
+            if (!unmapped.isEmpty()) {
+                unmappedEvents.put(entry.getKey(), unmapped);
+            }
+        }
+        return unmappedEvents;
+    }
+
+    private static boolean matchesFile(String file, Collection<String> files) {
+        return files.contains(file) || files.contains(new File(file).getName());
+    }
+
+    private static boolean matchesUei(String uei, Collection<String> ueiPrefixes) {
+        if (ueiPrefixes.isEmpty()) {
+            return true;
+        }
+        if (uei == null) {
+            return false;
+        }
+        for (String prefix : ueiPrefixes) {
+            if (uei.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import org.opennms.netmgt.xml.eventconf.Event;
+
+/**
+ * The events matched with a definition, along with the strategy that matched them.
+ */
+public class MatchResult {
+    private static final MatchResult NO_MATCH = new MatchResult(Collections.emptyList(), null);
+
+    private final List<Event> events;
+    private final MatchStrategy strategy;
+
+    private MatchResult(List<Event> events, MatchStrategy strategy) {
+        this.events = events;
+        this.strategy = strategy;
+    }
+
+    public static MatchResult of(List<Event> events, MatchStrategy strategy) {
+        return new MatchResult(Objects.requireNonNull(events), Objects.requireNonNull(strategy));
+    }
+
+    public static MatchResult noMatch() {
+        return NO_MATCH;
+    }
+
+    public List<Event> getEvents() {
+        return events;
+    }
+
+    /**
+     * @return the strategy that matched the events, or null if there was no match
+     */
+    public MatchStrategy getStrategy() {
+        return strategy;
+    }
+
+    public boolean isMatched() {
+        return strategy != null;
+    }
+
+    @Override
+    public String toString() {
+        return "MatchResult{" +
+                "events=" + events.size() +
+                ", strategy=" + strategy +
+                '}';
+    }
+}
@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the attempts and matches of each {@link MatchStrategy}, and keeps
+ * a histogram of the time spent in each.
+ *
+ * The histograms have one bucket per power of two microseconds, so bucket i
+ * counts the attempts that took less than 2^i microseconds, and at least 2^(i-1).
+ * The last bucket counts all of the attempts that took at least 2^(NUM_BUCKETS-2) microseconds.
+ *
+ * Safe to update from multiple threads.
+ */
+public class MatchStats {
+    public static final int NUM_BUCKETS = 24;
+
+    private final Map<MatchStrategy, StrategyStats> stats = new EnumMap<>(MatchStrategy.class);
+
+    public MatchStats() {
+        for (MatchStrategy strategy : MatchStrategy.values()) {
+            stats.put(strategy, new StrategyStats());
+        }
+    }
+
+    public void record(MatchStrategy strategy, boolean matched, long nanos) {
+        final StrategyStats s = stats.get(strategy);
+        s.attempts.increment();
+        if (matched) {
+            s.matches.increment();
+        }
+        s.nanos.add(nanos);
+        s.histogram[getBucket(nanos)].increment();
+    }
+
+    private static int getBucket(long nanos) {
+        final long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        return Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    public long getAttempts(MatchStrategy strategy) {
+        return stats.get(strategy).attempts.sum();
+    }
+
+    public long getMatches(MatchStrategy strategy) {
+        return stats.get(strategy).matches.sum();
+    }
+
+    public long getTotalTime(MatchStrategy strategy, TimeUnit unit) {
+        return unit.convert(stats.get(strategy).nanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the number of attempts in each bucket of the latency histogram
+     */
+    public long[] getLatencyHistogram(MatchStrategy strategy) {
+        final LongAdder[] histogram = stats.get(strategy).histogram;
+        final long[] counts = new long[histogram.length];
+        for (int i = 0; i < histogram.length; i++) {
+            counts[i] = histogram[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * @return the approximate latency under which the given fraction of the attempts completed, in microseconds,
+     *         or {@link Long#MAX_VALUE} if it falls in the last bucket, which has no upper bound
+     */
+    public long getLatencyPercentile(MatchStrategy strategy, double fraction) {
+        final long[] histogram = getLatencyHistogram(strategy);
+        final long attempts = getAttempts(strategy);
+        long count = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            count += histogram[i];
+            if (count > 0 && count >= fraction * attempts) {
+                return i < histogram.length - 1 ? 1L << i : Long.MAX_VALUE;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * A summary with one line per strategy.
+     */
+    public String getSummary() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-30s %10s %10s %12s %10s %10s%n", "Strategy", "Attempts", "Matches", "Total (ms)", "p50 (us)", "p99 (us)"));
+        for (MatchStrategy strategy : MatchStrategy.values()) {
+            sb.append(String.format("%-30s %10d %10d %12d %10s %10s%n", strategy,
+                    getAttempts(strategy), getMatches(strategy), getTotalTime(strategy, TimeUnit.MILLISECONDS),
+                    formatPercentile(strategy, 0.5), formatPercentile(strategy, 0.99)));
+        }
+        return sb.toString();
+    }
+
+    private String formatPercentile(MatchStrategy strategy, double fraction) {
+        if (getAttempts(strategy) == 0) {
+            return "-";
+        }
+        final long percentile = getLatencyPercentile(strategy, fraction);
+        return percentile != Long.MAX_VALUE ? "<" + percentile : ">=" + (1L << (NUM_BUCKETS - 2));
+    }
+
+    private static class StrategyStats {
+        private final LongAdder attempts = new LongAdder();
+        private final LongAdder matches = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder[] histogram = new LongAdder[NUM_BUCKETS];
+
+        private StrategyStats() {
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] = new LongAdder();
+            }
+        }
+    }
+}
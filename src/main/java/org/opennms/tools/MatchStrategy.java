@@ -0,0 +1,51 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+/**
+ * The strategies used by the {@link DefAndEventMatcher}, in the order in which they are tried.
+ */
+public enum MatchStrategy {
+    /**
+     * The enterprise, generic and specific of the definition equal those of the event's mask.
+     */
+    EXACT,
+    /**
+     * Same as {@link #EXACT}, with the wildcards of the enterprise formatted like in the generated events.
+     */
+    FORMATTED_ENTERPRISE,
+    /**
+     * The event's id mask matches the enterprise as a prefix, after removing a trailing .0 from the enterprise.
+     */
+    PREFIX_WITHOUT_TRAILING_ZERO,
+    /**
+     * The event's id mask matches the enterprise as a prefix.
+     */
+    PREFIX
+}
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Indexes values by OID masks, where a mask is either an exact OID or a prefix
+ * followed by '%', i.e. ".1.3.6.1.4.1.9.%".
+ *
+ * The OIDs are split into their components, so all of the masks matching a given OID
+ * are found in a single descent. Masks that do not start with a dot are not split
+ * and are compared against every OID.
+ *
+ * The trie is not synchronized. Once all of the masks are added, it can safely be
+ * searched from multiple threads, provided it was safely published to them.
+ */
+public class OidTrie<T> {
+    private static final char WILDCARD = '%';
+
+    private static final Comparator<Entry<?>> INSERTION_ORDER = Comparator.comparingInt(e -> e.order);
+
+    private final Node<T> root = new Node<>();
+    private final List<Entry<T>> unsplitEntries = new ArrayList<>();
+    private int size = 0;
+
+    /**
+     * Adds a value for the given mask.
+     */
+    public void put(String mask, T value) {
+        final boolean wildcard = mask.length() > 0 && mask.charAt(mask.length() - 1) == WILDCARD;
+        final String prefix = wildcard ? mask.substring(0, mask.length() - 1) : mask;
+        final Entry<T> entry = new Entry<>(prefix, wildcard, size++, value);
+        if (prefix.isEmpty() || prefix.charAt(0) != '.' || prefix.indexOf(WILDCARD) >= 0) {
+            unsplitEntries.add(entry);
+            return;
+        }
+
+        Node<T> node = root;
+        int start = 1;
+        while (true) {
+            final int end = prefix.indexOf('.', start);
+            if (end < 0) {
+                final String arc = prefix.substring(start);
+                if (wildcard) {
+                    // The last component is a partial arc, i.e. ".1.3.6.1.4.1.9%" also matches ".1.3.6.1.4.1.99"
+                    entry.arcPrefix = arc;
+                    node.wildcards.add(entry);
+                } else {
+                    node.child(arc).exact.add(entry);
+                }
+                return;
+            }
+            node = node.child(prefix.substring(start, end));
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Finds the values of all of the masks that match the given OID.
+     *
+     * @return the values, in the order in which they were added
+     */
+    public List<T> find(String oid) {
+        final List<Entry<T>> matches = new ArrayList<>();
+        if (oid != null && oid.length() > 0 && oid.charAt(0) == '.') {
+            Node<T> node = root;
+            int start = 1;
+            while (node != null) {
+                final int dot = oid.indexOf('.', start);
+                final int end = dot < 0 ? oid.length() : dot;
+                final String arc = oid.substring(start, end);
+                for (Entry<T> entry : node.wildcards) {
+                    if (arc.startsWith(entry.arcPrefix)) {
+                        matches.add(entry);
+                    }
+                }
+                node = node.children.get(arc);
+                if (dot < 0) {
+                    if (node != null) {
+                        matches.addAll(node.exact);
+                    }
+                    break;
+                }
+                start = dot + 1;
+            }
+        }
+
+        for (Entry<T> entry : unsplitEntries) {
+            if (entry.wildcard ? oid != null && oid.startsWith(entry.prefix) : entry.prefix.equals(oid)) {
+                matches.add(entry);
+            }
+        }
+
+        matches.sort(INSERTION_ORDER);
+        final List<T> values = new ArrayList<>(matches.size());
+        for (Entry<T> entry : matches) {
+            values.add(entry.value);
+        }
+        return values;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static class Node<T> {
+        private final Map<String, Node<T>> children = new HashMap<>();
+        private final List<Entry<T>> exact = new ArrayList<>(1);
+        private final List<Entry<T>> wildcards = new ArrayList<>(1);
+
+        private Node<T> child(String arc) {
+            return children.computeIfAbsent(arc, a -> new Node<>());
+        }
+    }
+
+    private static class Entry<T> {
+        private final String prefix;
+        private final boolean wildcard;
+        private final int order;
+        private final T value;
+        private String arcPrefix = "";
+
+        private Entry(String prefix, boolean wildcard, int order, T value) {
+            this.prefix = prefix;
+            this.wildcard = wildcard;
+            this.order = order;
+            this.value = value;
+        }
+    }
+}
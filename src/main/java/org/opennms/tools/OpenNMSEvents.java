@@ -28,7 +28,10 @@
 
 package org.opennms.tools;
 
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
 import org.opennms.netmgt.config.DefaultEventConfDao;
 import org.opennms.netmgt.xml.eventconf.Event;
 import org.opennms.netmgt.xml.eventconf.Mask;
@@ -38,11 +41,18 @@ import org.springframework.core.io.FileSystemResource;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Utility class for loading and handling OpenNMS events.
@@ -50,36 +60,155 @@ import java.util.Set;
 public class OpenNMSEvents {
     private static final Logger LOG = LoggerFactory.getLogger(OpenNMSEvents.class);
 
-    private final DefaultEventConfDao eventConfDao;
+    private static final String DEFAULT_EVENTCONF_NAME = "eventconf.xml";
+
+    private final File file;
+    private final EventConfLoader loader;
+    private DefaultEventConfDao eventConfDao;
+    private Map<String, List<Event>> eventsByFile;
+    private List<Event> events;
+    private DefAndEventMatcher matcher;
+    private int threads = 1;
 
     public OpenNMSEvents(File file) {
-        eventConfDao = new DefaultEventConfDao();
+        this(file, new EventConfLoader());
+    }
+
+    /**
+     * Loads the events from eventconf.xml and the files it includes using the given loader.
+     */
+    public OpenNMSEvents(File file, EventConfLoader loader) {
+        this.file = Objects.requireNonNull(file);
+        this.loader = Objects.requireNonNull(loader);
+        loadEvents();
+    }
+
+    public OpenNMSEvents(DefaultEventConfDao eventConfDao) throws IOException {
+        this.file = null;
+        this.loader = null;
+        this.eventConfDao = Objects.requireNonNull(eventConfDao);
+    }
+
+    private void loadEvents() {
         try {
-            eventConfDao.setConfigResource(new FileSystemResource(file));
+            eventsByFile = loader.loadByFile(file);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        eventConfDao.afterPropertiesSet();
+        final List<Event> allEvents = new ArrayList<>();
+        eventsByFile.values().forEach(allEvents::addAll);
+        events = allEvents;
     }
 
-    public OpenNMSEvents(DefaultEventConfDao eventConfDao) throws IOException {
-        this.eventConfDao = Objects.requireNonNull(eventConfDao);
+    /**
+     * The DAO is only needed to save the events, so it is not loaded
+     * until then when the events were loaded from a file.
+     */
+    private DefaultEventConfDao getEventConfDao() {
+        if (eventConfDao == null) {
+            eventConfDao = new DefaultEventConfDao();
+            try {
+                eventConfDao.setConfigResource(new FileSystemResource(file));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            eventConfDao.afterPropertiesSet();
+        }
+        return eventConfDao;
     }
 
-    public DefAndEventMatcher getMatcher() {
-        return new DefAndEventMatcher(eventConfDao);
+    /**
+     * @return all of the events, in the order in which they are declared
+     */
+    public List<Event> getEvents() {
+        return events != null ? events : eventConfDao.getAllEvents();
+    }
+
+    /**
+     * @return the events keyed by the file in which they are defined, see {@link EventConfLoader#loadByFile(File)}.
+     * When the events come from a DAO, they are all keyed by eventconf.xml.
+     */
+    public Map<String, List<Event>> getEventsByFile() {
+        if (eventsByFile != null) {
+            return eventsByFile;
+        }
+        return Collections.singletonMap(DEFAULT_EVENTCONF_NAME, eventConfDao.getAllEvents());
+    }
+
+    /**
+     * Sets the number of threads used to match the definitions with the events.
+     *
+     * @param threads 1 to match sequentially, 0 or less to use all of the available cores
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * The matcher is built once and reused, until the events are reloaded.
+     */
+    public synchronized DefAndEventMatcher getMatcher() {
+        if (matcher == null) {
+            matcher = new DefAndEventMatcher(getEventsByFile());
+        }
+        return matcher;
     }
 
     public Map<SmartsTrapDef, List<Event>> mapDefinitionsToEventConfs(Set<SmartsTrapDef> defs) {
-        final Map<SmartsTrapDef, List<Event>> defToEventConf = new LinkedHashMap<>();
+        return mapDefinitionsToEventConfs(defs.stream());
+    }
+
+    /**
+     * Matches all of the definitions in a single batch.
+     * Duplicate definitions are only matched once.
+     */
+    public Map<SmartsTrapDef, List<Event>> mapDefinitionsToEventConfs(Stream<SmartsTrapDef> defs) {
+        return ImmutableMap.copyOf(Maps.transformValues(matchDefinitions(defs), MatchResult::getEvents));
+    }
+
+    /**
+     * Matches all of the definitions in a single batch, keeping track of the strategy
+     * that matched each one. Duplicate definitions are only matched once.
+     *
+     * When more than one thread is configured, the definitions are split by their normalized enterprise
+     * and each enterprise is matched as a separate batch. Either way, the map is ordered like the stream.
+     */
+    public Map<SmartsTrapDef, MatchResult> matchDefinitions(Stream<SmartsTrapDef> defs) {
         final DefAndEventMatcher matcher = getMatcher();
-        for (SmartsTrapDef def : defs) {
-            defToEventConf.put(def, matcher.getMatchingEvents(def));
+        final List<SmartsTrapDef> distinctDefs = new ArrayList<>(defs.collect(Collectors.toCollection(LinkedHashSet::new)));
+        if (threads == 1) {
+            final Map<SmartsTrapDef, MatchResult> results = matcher.matchAll(distinctDefs);
+            logFallbackStats(matcher);
+            return results;
         }
-        return defToEventConf;
+
+        // Definitions that normalize to the same enterprise share their fallback lookups, so they go in the same batch.
+        // The ones that cannot be looked up by prefix go with the ones that match any enterprise.
+        final List<List<SmartsTrapDef>> defsByEnterprise = new ArrayList<>(distinctDefs.stream()
+                .collect(Collectors.groupingBy(def -> Objects.toString(DefAndEventMatcher.getEffectiveEnterprise(def), ""),
+                        LinkedHashMap::new, Collectors.toList())).values());
+        final Map<SmartsTrapDef, MatchResult> matches = new HashMap<>();
+        final ForkJoinPool pool = new ForkJoinPool(ParallelUtils.getEffectiveThreads(threads));
+        try {
+            ParallelUtils.map(pool, defsByEnterprise, matcher::matchAll).forEach(matches::putAll);
+        } finally {
+            pool.shutdown();
+        }
+        final ImmutableMap.Builder<SmartsTrapDef, MatchResult> results = ImmutableMap.builder();
+        for (SmartsTrapDef def : distinctDefs) {
+            results.put(def, matches.get(def));
+        }
+        logFallbackStats(matcher);
+        return results.build();
+    }
+
+    private static void logFallbackStats(DefAndEventMatcher matcher) {
+        final CacheStats stats = matcher.getFallbackStats();
+        LOG.info("Fallback lookups: {} hits, {} misses.", stats.hitCount(), stats.missCount());
     }
 
     public void clearVarbinds() {
+        final DefaultEventConfDao eventConfDao = getEventConfDao();
         // Clear all of the varbinds in the mask!
         for (org.opennms.netmgt.xml.eventconf.Event event : eventConfDao.getAllEvents()) {
             final Mask mask = event.getMask();
@@ -90,6 +219,12 @@ public class OpenNMSEvents {
         }
         eventConfDao.saveCurrent();
         eventConfDao.reload();
+        synchronized (this) {
+            if (events != null) {
+                loadEvents();
+            }
+            matcher = null;
+        }
     }
 
     public static String getFirstOrNull(Event e, String maskElement) {
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+
+/**
+ * Utility class for spreading independent work across a fork-join pool.
+ */
+public class ParallelUtils {
+
+    /**
+     * Determines the number of threads to use.
+     *
+     * @param threads the configured number of threads, 0 or less to use all of the available cores
+     */
+    public static int getEffectiveThreads(int threads) {
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Applies the function to every item using the given pool.
+     *
+     * @return the results, in the same order as the items
+     */
+    public static <T, R> List<R> map(ForkJoinPool pool, List<T> items, Function<? super T, ? extends R> function) {
+        Objects.requireNonNull(pool);
+        Objects.requireNonNull(function);
+        final Object[] results = new Object[items.size()];
+        if (!items.isEmpty()) {
+            final int threshold = Math.max(1, items.size() / (pool.getParallelism() * 8));
+            pool.invoke(new MapAction<>(items, function, results, 0, items.size(), threshold));
+        }
+        @SuppressWarnings("unchecked")
+        final List<R> resultList = (List<R>) Arrays.asList(results);
+        return new ArrayList<>(resultList);
+    }
+
+    private static class MapAction<T, R> extends RecursiveAction {
+        private final List<T> items;
+        private final Function<? super T, ? extends R> function;
+        private final Object[] results;
+        private final int from;
+        private final int to;
+        private final int threshold;
+
+        private MapAction(List<T> items, Function<? super T, ? extends R> function, Object[] results, int from, int to, int threshold) {
+            this.items = items;
+            this.function = function;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= threshold) {
+                for (int i = from; i < to; i++) {
+                    results[i] = function.apply(items.get(i));
+                }
+            } else {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new MapAction<>(items, function, results, from, mid, threshold),
+                        new MapAction<>(items, function, results, mid, to, threshold));
+            }
+        }
+    }
+}
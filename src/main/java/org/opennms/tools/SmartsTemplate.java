@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * A Smarts value that may reference $...$ variables, such as the EventText or the InstanceName of a
+ * definition, tokenized into literal and variable segments.
+ *
+ * The values are rendered to the OpenNMS %parm[...]% syntax when they are compiled, so rendering
+ * them afterwards does not do any work. Compiled templates are immutable and cached, since the same
+ * values repeat across many definitions.
+ */
+public final class SmartsTemplate {
+    private static final int CACHE_SIZE = 100000;
+    private static final LoadingCache<String, SmartsTemplate> s_templates = CacheBuilder.newBuilder()
+            .maximumSize(CACHE_SIZE)
+            .build(CacheLoader.from(SmartsTemplate::new));
+
+    private final String template;
+    private final List<String> literals;
+    private final List<String> variables;
+    private final String rendered;
+    private final String reductionKeyPart;
+
+    private SmartsTemplate(String template) {
+        this.template = Objects.requireNonNull(template);
+        final List<String> literals = new ArrayList<>();
+        final List<String> variables = new ArrayList<>();
+        final StringBuilder sb = new StringBuilder(template.length() + 16);
+        int literalStart = 0;
+        int i = 0;
+        while (i < template.length()) {
+            final int end = template.charAt(i) == '$' ? findVariableEnd(template, i + 1) : -1;
+            if (end < 0) {
+                i++;
+                continue;
+            }
+            final String literal = template.substring(literalStart, i);
+            final String variable = template.substring(i + 1, end);
+            literals.add(literal);
+            variables.add(variable);
+            sb.append(literal);
+            final String parmId = Converter.toParmId(variable);
+            if (parmId.equals(variable)) {
+                // Unknown variables are kept as they are, without the $s
+                sb.append(variable);
+            } else {
+                sb.append('%').append(parmId).append('%');
+            }
+            i = literalStart = end + 1;
+        }
+        final String tail = template.substring(literalStart);
+        literals.add(tail);
+        sb.append(tail);
+
+        this.literals = Collections.unmodifiableList(literals);
+        this.variables = Collections.unmodifiableList(variables);
+        this.rendered = variables.isEmpty() ? template : sb.toString();
+        this.reductionKeyPart = toReductionKeyPart(rendered);
+    }
+
+    /**
+     * @return the compiled template, which may be shared with other callers
+     */
+    public static SmartsTemplate compile(String template) {
+        return s_templates.getUnchecked(template);
+    }
+
+    /**
+     * Finds the $ that closes a variable. Like the $(.*?)$ pattern that was used
+     * before, variables do not span multiple lines.
+     *
+     * @return the index of the closing $, or -1 if there is none
+     */
+    private static int findVariableEnd(String template, int start) {
+        for (int i = start; i < template.length(); i++) {
+            switch (template.charAt(i)) {
+                case '$':
+                    return i;
+                case '\n':
+                case '\r':
+                case '\u0085':
+                case '\u2028':
+                case '\u2029':
+                    return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static String toReductionKeyPart(String value) {
+        if (value.indexOf('/') < 0 && !value.contains("<->")) {
+            return value;
+        }
+        final StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '/') {
+                sb.append(':');
+            } else if (c == '<' && value.startsWith("<->", i)) {
+                sb.append(':');
+                i += 2;
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    /**
+     * @return the names of the variables, without the $s, in the order in which they are referenced
+     */
+    public List<String> getVariables() {
+        return variables;
+    }
+
+    /**
+     * @return the literal text around the variables. There is always one more literal than there are variables.
+     */
+    public List<String> getLiterals() {
+        return literals;
+    }
+
+    public boolean hasVariables() {
+        return !variables.isEmpty();
+    }
+
+    /**
+     * @return the value with the variables replaced by the corresponding OpenNMS parameters
+     */
+    public String render() {
+        return rendered;
+    }
+
+    /**
+     * @return the rendered value, with the &lt;-&gt; and / separators replaced by colons
+     */
+    public String renderReductionKeyPart() {
+        return reductionKeyPart;
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+}
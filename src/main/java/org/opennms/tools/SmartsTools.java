@@ -28,7 +28,6 @@
 
 package org.opennms.tools;
 
-import com.google.common.collect.Sets;
 import org.opennms.netmgt.xml.eventconf.Event;
 import org.opennms.tools.smarts.config.SmartsExcludeConfig;
 import org.opennms.tools.smarts.config.SmartsToolsConfig;
@@ -41,6 +40,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Handles loading the configuration and doing common tasks needed by
@@ -56,6 +56,19 @@ public class SmartsTools {
     }
 
     public List<SmartsTrapDef> getSmartsTrapDefinitions() throws IOException {
+        try (Stream<SmartsTrapDef> trapDefs = streamSmartsTrapDefinitions(true)) {
+            return trapDefs.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Lazily streams the Smarts trap definitions, skipping any that are excluded.
+     *
+     * The stream must be closed once done.
+     *
+     * @param sorted when true, the definitions are sorted by enterprise
+     */
+    public Stream<SmartsTrapDef> streamSmartsTrapDefinitions(boolean sorted) throws IOException {
         final File smartsTrapConfigFile = new File(config.getSmarts().getTraps());
         if (!smartsTrapConfigFile.canRead()) {
             throw new IOException("Cannot read Smarts trap definitions: "
@@ -65,41 +78,69 @@ public class SmartsTools {
         // Parse the trap definitions
         LOG.info("Parsing Smarts trap definitions...");
         SmartsTrapParser p = new SmartsTrapParser(smartsTrapConfigFile);
-        List<SmartsTrapDef> trapDefs = p.getTrapDefinitions();
-
-        // Sanitize
-        LOG.info("Sanitizing Smarts trap definitions...");
-        trapDefs = trapDefs.stream()
-                .filter(def -> {
-                    for (SmartsExcludeConfig exclude : config.getSmarts().getExcludes()) {
-                        if (def.getEnterprise().startsWith(exclude.getEnterprisePrefix())) {
-                            return false;
-                        }
-                    }
-                    return true;
-
-                })
-                .collect(Collectors.toList());
+        p.setThreads(config.getSmarts().getThreads());
+
+        Stream<SmartsTrapDef> trapDefs;
+        final SmartsTrapDefCache cache = getCache();
+        if (cache != null) {
+            trapDefs = cache.getTrapDefinitions(p).stream();
+        } else {
+            trapDefs = p.streamTrapDefinitions();
+        }
+
+        // Sanitize before sorting, so that excluded definitions never need to be sorted
+        trapDefs = trapDefs.filter(def -> {
+            for (SmartsExcludeConfig exclude : config.getSmarts().getExcludes()) {
+                if (def.getEnterprise().startsWith(exclude.getEnterprisePrefix())) {
+                    return false;
+                }
+            }
+            return true;
+        });
+        if (sorted) {
+            trapDefs = trapDefs.sorted(SmartsTrapParser.ENTERPRISE_ORDER);
+        }
         return trapDefs;
     }
 
+    private SmartsTrapDefCache getCache() {
+        if (config.getCache() == null || config.getCache().getDir() == null) {
+            return null;
+        }
+        return new SmartsTrapDefCache(new File(config.getCache().getDir()));
+    }
+
     public OpenNMSEvents getOpenNMSEvents() {
         final File opennmsEventconfFile = new File( config.getOpennms().getEvents());
         LOG.info("Loading OpenNMS event definitions...");
-        final OpenNMSEvents o = new OpenNMSEvents(opennmsEventconfFile);
+        final EventConfLoader loader = new EventConfLoader();
+        loader.setThreads(config.getOpennms().getThreads());
+        if (config.getCache() != null && config.getCache().getDir() != null) {
+            loader.setSnapshotCache(new EventConfSnapshotCache(new File(config.getCache().getDir())));
+        }
+        final OpenNMSEvents o = new OpenNMSEvents(opennmsEventconfFile, loader);
+        o.setThreads(config.getOpennms().getThreads());
         return o;
     }
 
     public Map<SmartsTrapDef, List<Event>> getDefinitionToEventMappings() throws IOException {
-        // SMARTS Definitions
-        final List<SmartsTrapDef> smartsTrapDefs = getSmartsTrapDefinitions();
-
         // Existing events in OpenNMS
         final OpenNMSEvents nmsEvents = getOpenNMSEvents();
 
         // Now try and match each of the SMARTS trap definitions against
         // corresponding event definitions
-        return nmsEvents.mapDefinitionsToEventConfs(Sets.newLinkedHashSet(smartsTrapDefs));
+        try (Stream<SmartsTrapDef> smartsTrapDefs = streamSmartsTrapDefinitions(true)) {
+            return nmsEvents.mapDefinitionsToEventConfs(smartsTrapDefs);
+        }
+    }
+
+    /**
+     * Matches each of the Smarts trap definitions against the given events.
+     */
+    public Map<SmartsTrapDef, MatchResult> getDefinitionMatches(OpenNMSEvents nmsEvents) throws IOException {
+        try (Stream<SmartsTrapDef> smartsTrapDefs = streamSmartsTrapDefinitions(true)) {
+            return nmsEvents.matchDefinitions(smartsTrapDefs);
+        }
     }
 
 }
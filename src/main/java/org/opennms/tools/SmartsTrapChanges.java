@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Summarizes how the definitions changed between two parses of the same file.
+ *
+ * Definitions are identified by their enterprise, generic and specific numbers.
+ */
+public class SmartsTrapChanges {
+    private final SmartsTrapParseResult result;
+    private final List<SmartsTrapDef> added;
+    private final List<SmartsTrapDef> removed;
+    private final List<SmartsTrapDef> modified;
+    private final int reused;
+
+    public SmartsTrapChanges(SmartsTrapParseResult result, List<SmartsTrapDef> added, List<SmartsTrapDef> removed,
+                             List<SmartsTrapDef> modified, int reused) {
+        this.result = Objects.requireNonNull(result);
+        this.added = Collections.unmodifiableList(added);
+        this.removed = Collections.unmodifiableList(removed);
+        this.modified = Collections.unmodifiableList(modified);
+        this.reused = reused;
+    }
+
+    /**
+     * @return the complete set of definitions following the parse
+     */
+    public SmartsTrapParseResult getResult() {
+        return result;
+    }
+
+    /**
+     * @return the definitions that did not previously exist
+     */
+    public List<SmartsTrapDef> getAdded() {
+        return added;
+    }
+
+    /**
+     * @return the previous definitions that no longer exist
+     */
+    public List<SmartsTrapDef> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return the new versions of the definitions that changed
+     */
+    public List<SmartsTrapDef> getModified() {
+        return modified;
+    }
+
+    /**
+     * @return the number of definitions that were reused as-is, without being parsed again
+     */
+    public int getReused() {
+        return reused;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && modified.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d added, %d removed, %d modified, %d unchanged",
+                added.size(), removed.size(), modified.size(), reused);
+    }
+}
@@ -28,15 +28,44 @@
 
 package org.opennms.tools;
 
-import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
 
+import com.google.common.base.Enums;
+
 /**
  * A trap definition as defined in Smarts.
+ *
+ * Only the values set on the definition itself are stored here, the getters fall back
+ * to the {@link SmartsTrapDefaults} that were in effect where the definition was read.
+ * The state, event type and flags are also parsed once, when they are set.
  */
 public class SmartsTrapDef {
 
+    public enum State {
+        NOTIFY,
+        CLEAR;
+
+        /**
+         * @return the state, or null if the value is not one of the known states, i.e. a variable
+         */
+        public static State parse(String value) {
+            return value != null ? Enums.getIfPresent(State.class, value.trim().toUpperCase()).orNull() : null;
+        }
+    }
+
+    public enum EventType {
+        MOMENTARY,
+        DURABLE;
+
+        /**
+         * @return the event type, or null if the value is not one of the known types
+         */
+        public static EventType parse(String value) {
+            return value != null ? Enums.getIfPresent(EventType.class, value.trim().toUpperCase()).orNull() : null;
+        }
+    }
+
     private String enterprise;
     private String trapNumber;
     private String specific;
@@ -45,18 +74,24 @@ public class SmartsTrapDef {
     private String elementName;
     private String instanceName;
     private String eventName;
-    private int severity;
+    private Integer severity;
     private String eventText;
     private String state;
+    private State stateValue;
     private String eventType;
+    private EventType eventTypeValue;
     private String unknownAgent;
+    private boolean createUnknownAgent;
     private String clearOnAcknowledge;
+    private boolean clearOnAcknowledgeValue;
     private String expiration;
     private String logFile;
-    private Map<String, Map<String, String>> map = new LinkedHashMap<>();
+    private Map<String, Map<String, String>> map;
+    private SmartsTrapDefaults defaults = SmartsTrapDefaults.EMPTY;
+    private TrapKey key;
 
     public String getClassName() {
-        return className;
+        return className != null ? className : defaults.getClassName();
     }
 
     public void setClassName(String className) {
@@ -64,7 +99,7 @@ public class SmartsTrapDef {
     }
 
     public String getElementName() {
-        return elementName;
+        return elementName != null ? elementName : defaults.getElementName();
     }
 
     public void setElementName(String elementName) {
@@ -72,7 +107,7 @@ public class SmartsTrapDef {
     }
 
     public String getInstanceName() {
-        return instanceName;
+        return instanceName != null ? instanceName : defaults.getInstanceName();
     }
 
     public void setInstanceName(String instanceName) {
@@ -80,23 +115,33 @@ public class SmartsTrapDef {
     }
 
     public String getEventName() {
-        return eventName;
+        return eventName != null ? eventName : defaults.getEventName();
     }
 
     public void setEventName(String eventName) {
         this.eventName = eventName;
     }
 
+    /**
+     * @return the severity, or 0 if neither the definition nor its defaults define one
+     */
     public int getSeverity() {
-        return severity;
+        if (severity != null) {
+            return severity;
+        }
+        return defaults.getSeverity() != null ? defaults.getSeverity() : 0;
+    }
+
+    public boolean hasSeverity() {
+        return severity != null || defaults.getSeverity() != null;
     }
 
-    public void setSeverity(int severity) {
+    public void setSeverity(Integer severity) {
         this.severity = severity;
     }
 
     public String getEventText() {
-        return eventText;
+        return eventText != null ? eventText : defaults.getEventText();
     }
 
     public void setEventText(String eventText) {
@@ -104,39 +149,43 @@ public class SmartsTrapDef {
     }
 
     public String getState() {
-        return state;
+        return state != null ? state : defaults.getState();
     }
 
     public void setState(String state) {
         this.state = state;
+        this.stateValue = State.parse(state);
     }
 
     public String getEventType() {
-        return eventType;
+        return eventType != null ? eventType : defaults.getEventType();
     }
 
     public void setEventType(String eventType) {
         this.eventType = eventType;
+        this.eventTypeValue = EventType.parse(eventType);
     }
 
     public String getUnknownAgent() {
-        return unknownAgent;
+        return unknownAgent != null ? unknownAgent : defaults.getUnknownAgent();
     }
 
     public void setUnknownAgent(String unknownAgent) {
         this.unknownAgent = unknownAgent;
+        this.createUnknownAgent = isCreateUnknownAgent(unknownAgent);
     }
 
     public String getClearOnAcknowledge() {
-        return clearOnAcknowledge;
+        return clearOnAcknowledge != null ? clearOnAcknowledge : defaults.getClearOnAcknowledge();
     }
 
     public void setClearOnAcknowledge(String clearOnAcknowledge) {
         this.clearOnAcknowledge = clearOnAcknowledge;
+        this.clearOnAcknowledgeValue = isClearOnAcknowledge(clearOnAcknowledge);
     }
 
     public String getExpiration() {
-        return expiration;
+        return expiration != null ? expiration : defaults.getExpiration();
     }
 
     public void setExpiration(String expiration) {
@@ -144,7 +193,7 @@ public class SmartsTrapDef {
     }
 
     public String getLogFile() {
-        return logFile;
+        return logFile != null ? logFile : defaults.getLogFile();
     }
 
     public void setLogFile(String logFile) {
@@ -157,6 +206,7 @@ public class SmartsTrapDef {
 
     public void setEnterprise(String enterprise) {
         this.enterprise = enterprise;
+        this.key = null;
     }
 
     public String getTrapNumber() {
@@ -165,6 +215,7 @@ public class SmartsTrapDef {
 
     public void setTrapNumber(String trapNumber) {
         this.trapNumber = trapNumber;
+        this.key = null;
     }
 
     public String getSpecific() {
@@ -173,42 +224,95 @@ public class SmartsTrapDef {
 
     public void setSpecific(String specific) {
         this.specific = specific;
+        this.key = null;
     }
 
     public Map<String, Map<String, String>> getMap() {
-        return map;
+        return map != null ? map : defaults.getMap();
     }
 
     public void setMap(Map<String, Map<String, String>> map) {
         this.map = map;
     }
 
+    /**
+     * @return the state, or null if it is not set or refers to a variable
+     */
+    public State getStateValue() {
+        return state != null ? stateValue : defaults.getStateValue();
+    }
+
+    public EventType getEventTypeValue() {
+        return eventType != null ? eventTypeValue : defaults.getEventTypeValue();
+    }
+
+    public boolean isClearOnAcknowledge() {
+        return clearOnAcknowledge != null ? clearOnAcknowledgeValue : defaults.isClearOnAcknowledge();
+    }
+
+    public boolean isCreateUnknownAgent() {
+        return unknownAgent != null ? createUnknownAgent : defaults.isCreateUnknownAgent();
+    }
+
+    static boolean isClearOnAcknowledge(String clearOnAcknowledge) {
+        return "TRUE".equalsIgnoreCase(clearOnAcknowledge);
+    }
+
+    static boolean isCreateUnknownAgent(String unknownAgent) {
+        return "CREATE".equalsIgnoreCase(unknownAgent);
+    }
+
+    /**
+     * The key formed by the enterprise, generic and specific numbers.
+     * It is computed once and reused until one of them changes.
+     */
+    public TrapKey getKey() {
+        TrapKey k = key;
+        if (k == null) {
+            k = new TrapKey(enterprise, trapNumber, specific);
+            key = k;
+        }
+        return k;
+    }
+
+    public SmartsTrapDefaults getDefaults() {
+        return defaults;
+    }
+
+    public void setDefaults(SmartsTrapDefaults defaults) {
+        this.defaults = Objects.requireNonNull(defaults);
+    }
+
     @Override
     public boolean equals(Object o) {
+        // Definitions are compared by their effective values, regardless of which come from the defaults
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         SmartsTrapDef that = (SmartsTrapDef) o;
-        return severity == that.severity &&
+        // Compare the keys first, since definitions with different keys rarely share anything else
+        return getKey().equals(that.getKey()) &&
                 Objects.equals(enterprise, that.enterprise) &&
                 Objects.equals(trapNumber, that.trapNumber) &&
                 Objects.equals(specific, that.specific) &&
-                Objects.equals(className, that.className) &&
-                Objects.equals(elementName, that.elementName) &&
-                Objects.equals(instanceName, that.instanceName) &&
-                Objects.equals(eventName, that.eventName) &&
-                Objects.equals(eventText, that.eventText) &&
-                Objects.equals(state, that.state) &&
-                Objects.equals(eventType, that.eventType) &&
-                Objects.equals(unknownAgent, that.unknownAgent) &&
-                Objects.equals(clearOnAcknowledge, that.clearOnAcknowledge) &&
-                Objects.equals(expiration, that.expiration) &&
-                Objects.equals(logFile, that.logFile) &&
-                Objects.equals(map, that.map);
+                getSeverity() == that.getSeverity() &&
+                Objects.equals(getClassName(), that.getClassName()) &&
+                Objects.equals(getElementName(), that.getElementName()) &&
+                Objects.equals(getInstanceName(), that.getInstanceName()) &&
+                Objects.equals(getEventName(), that.getEventName()) &&
+                Objects.equals(getEventText(), that.getEventText()) &&
+                Objects.equals(getState(), that.getState()) &&
+                Objects.equals(getEventType(), that.getEventType()) &&
+                Objects.equals(getUnknownAgent(), that.getUnknownAgent()) &&
+                Objects.equals(getClearOnAcknowledge(), that.getClearOnAcknowledge()) &&
+                Objects.equals(getExpiration(), that.getExpiration()) &&
+                Objects.equals(getLogFile(), that.getLogFile()) &&
+                Objects.equals(getMap(), that.getMap());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(enterprise, trapNumber, specific, className, elementName, instanceName, eventName, severity, eventText, state, eventType, unknownAgent, clearOnAcknowledge, expiration, logFile, map);
+        // Only the key is hashed, so that the definitions can be used as keys in hash maps cheaply
+        return getKey().hashCode();
     }
 
     @Override
@@ -217,19 +321,19 @@ public class SmartsTrapDef {
                 "enterprise='" + enterprise + '\'' +
                 ", trapNumber='" + trapNumber + '\'' +
                 ", specific='" + specific + '\'' +
-                ", className='" + className + '\'' +
-                ", elementName='" + elementName + '\'' +
-                ", instanceName='" + instanceName + '\'' +
-                ", eventName='" + eventName + '\'' +
-                ", severity=" + severity +
-                ", eventText='" + eventText + '\'' +
-                ", state='" + state + '\'' +
-                ", eventType='" + eventType + '\'' +
-                ", unknownAgent='" + unknownAgent + '\'' +
-                ", clearOnAcknowledge='" + clearOnAcknowledge + '\'' +
-                ", expiration='" + expiration + '\'' +
-                ", logFile='" + logFile + '\'' +
-                ", map=" + map +
+                ", className='" + getClassName() + '\'' +
+                ", elementName='" + getElementName() + '\'' +
+                ", instanceName='" + getInstanceName() + '\'' +
+                ", eventName='" + getEventName() + '\'' +
+                ", severity=" + getSeverity() +
+                ", eventText='" + getEventText() + '\'' +
+                ", state='" + getState() + '\'' +
+                ", eventType='" + getEventType() + '\'' +
+                ", unknownAgent='" + getUnknownAgent() + '\'' +
+                ", clearOnAcknowledge='" + getClearOnAcknowledge() + '\'' +
+                ", expiration='" + getExpiration() + '\'' +
+                ", logFile='" + getLogFile() + '\'' +
+                ", map=" + getMap() +
                 '}';
     }
 }
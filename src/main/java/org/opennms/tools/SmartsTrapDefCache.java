@@ -0,0 +1,411 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+/**
+ * Keeps the parsed trap definitions on disk, so that unchanged trap files
+ * don't need to be parsed again.
+ *
+ * The cached definitions are only used as-is when both the hash of the file's contents
+ * and the parser version match the ones they were stored with. When only the contents
+ * changed, the cached definitions of the unchanged blocks are reused.
+ */
+public class SmartsTrapDefCache {
+    private static final Logger LOG = LoggerFactory.getLogger(SmartsTrapDefCache.class);
+
+    private static final int MAGIC = 0x534D5443;
+    private static final int FORMAT_VERSION = 4;
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final File dir;
+
+    public SmartsTrapDefCache(File dir) {
+        this.dir = Objects.requireNonNull(dir);
+    }
+
+    /**
+     * Retrieves the definitions from the cache, or parses and caches
+     * them if the cache is missing or out of date.
+     *
+     * When the file changed since it was cached, only the blocks that
+     * changed are parsed again.
+     *
+     * @return the definitions, in file order
+     */
+    public List<SmartsTrapDef> getTrapDefinitions(SmartsTrapParser parser) throws IOException {
+        final File file = parser.getFile();
+        final byte[] contentHash = Files.asByteSource(file).hash(HASH_FUNCTION).asBytes();
+        final File cacheFile = getCacheFile(file);
+
+        CachedResult cached = null;
+        if (cacheFile.canRead()) {
+            try {
+                cached = read(cacheFile);
+            } catch (IOException e) {
+                LOG.warn("Failed to read cached trap definitions from {}. The file will be parsed again.", cacheFile, e);
+            }
+        }
+
+        if (cached != null && Arrays.equals(contentHash, cached.contentHash)) {
+            LOG.info("Loaded {} trap definitions from {}.", cached.result.size(), cacheFile);
+            return cached.result.getDefinitions();
+        }
+
+        final SmartsTrapParseResult result;
+        if (cached != null) {
+            final SmartsTrapChanges changes = parser.parse(cached.result);
+            LOG.info("Trap definitions changed since they were cached: {}.", changes);
+            logChanges("Added", changes.getAdded());
+            logChanges("Removed", changes.getRemoved());
+            logChanges("Modified", changes.getModified());
+            result = changes.getResult();
+        } else {
+            result = parser.parse();
+        }
+
+        try {
+            write(cacheFile, contentHash, result);
+            LOG.info("Cached {} trap definitions in {}.", result.size(), cacheFile);
+        } catch (IOException e) {
+            LOG.warn("Failed to cache the trap definitions in {}.", cacheFile, e);
+        }
+        return result.getDefinitions();
+    }
+
+    private static void logChanges(String change, List<SmartsTrapDef> defs) {
+        for (SmartsTrapDef def : defs) {
+            LOG.info("{} trap definition: {} ({},{},{})", change, def.getEventName(),
+                    def.getEnterprise(), def.getTrapNumber(), def.getSpecific());
+        }
+    }
+
+    protected File getCacheFile(File file) {
+        final String pathHash = HASH_FUNCTION.hashString(file.getAbsolutePath(), StandardCharsets.UTF_8).toString();
+        return new File(dir, "smarts-" + pathHash + ".bin");
+    }
+
+    private static class CachedResult {
+        private final byte[] contentHash;
+        private final SmartsTrapParseResult result;
+
+        private CachedResult(byte[] contentHash, SmartsTrapParseResult result) {
+            this.contentHash = contentHash;
+            this.result = result;
+        }
+    }
+
+    /**
+     * @return the cached result, or null if it was written by a different version
+     */
+    private static CachedResult read(File cacheFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile), 64 * 1024))) {
+            if (in.readInt() != MAGIC
+                    || in.readInt() != FORMAT_VERSION
+                    || in.readInt() != SmartsTrapParser.VERSION) {
+                return null;
+            }
+            final byte[] contentHash = new byte[in.readUnsignedByte()];
+            in.readFully(contentHash);
+
+            final Decoder decoder = new Decoder(in);
+            final int numDefs = in.readInt();
+            final List<SmartsTrapDef> defs = new ArrayList<>(numDefs);
+            final long[] blockHashes = new long[numDefs];
+            for (int i = 0; i < numDefs; i++) {
+                blockHashes[i] = in.readLong();
+                defs.add(decoder.readDef());
+            }
+            return new CachedResult(contentHash, new SmartsTrapParseResult(defs, blockHashes));
+        }
+    }
+
+    private static void write(File cacheFile, byte[] contentHash, SmartsTrapParseResult result) throws IOException {
+        if (!dir(cacheFile).isDirectory() && !dir(cacheFile).mkdirs()) {
+            throw new IOException("Cannot create cache directory: " + dir(cacheFile));
+        }
+
+        // Write to a temporary file first, so that a partial write never replaces a valid cache
+        final File tmpFile = File.createTempFile(cacheFile.getName(), ".tmp", dir(cacheFile));
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 64 * 1024))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(SmartsTrapParser.VERSION);
+                out.writeByte(contentHash.length);
+                out.write(contentHash);
+
+                final Encoder encoder = new Encoder(out);
+                out.writeInt(result.size());
+                for (int i = 0; i < result.size(); i++) {
+                    out.writeLong(result.getBlockHash(i));
+                    encoder.writeDef(result.getDefinitions().get(i));
+                }
+            }
+            java.nio.file.Files.move(tmpFile.toPath(), cacheFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            java.nio.file.Files.deleteIfExists(tmpFile.toPath());
+        }
+    }
+
+    private static File dir(File file) {
+        return file.getAbsoluteFile().getParentFile();
+    }
+
+    /**
+     * Writes the definitions. Every distinct string is only written once, the
+     * following occurrences refer back to the first one.
+     */
+    private static class Encoder {
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Map<SmartsTrapDefaults, Integer> defaultsIndex = new IdentityHashMap<>();
+
+        private Encoder(DataOutputStream out) {
+            this.out = out;
+        }
+
+        private void writeDef(SmartsTrapDef def) throws IOException {
+            final SmartsTrapDefaults defaults = def.getDefaults();
+            writeDefaults(defaults);
+
+            // Values equal to the defaults are written as null, and inherited again when read
+            writeString(def.getEnterprise());
+            writeString(def.getTrapNumber());
+            writeString(def.getSpecific());
+            writeString(override(def.getClassName(), defaults.getClassName()));
+            writeString(override(def.getElementName(), defaults.getElementName()));
+            writeString(override(def.getInstanceName(), defaults.getInstanceName()));
+            writeString(override(def.getEventName(), defaults.getEventName()));
+            // getSeverity() falls back to 0 when no severity is defined, which must not be cached as one
+            writeSeverity(override(def.hasSeverity() ? def.getSeverity() : null, defaults.getSeverity()));
+            writeString(override(def.getEventText(), defaults.getEventText()));
+            writeString(override(def.getState(), defaults.getState()));
+            writeString(override(def.getEventType(), defaults.getEventType()));
+            writeString(override(def.getUnknownAgent(), defaults.getUnknownAgent()));
+            writeString(override(def.getClearOnAcknowledge(), defaults.getClearOnAcknowledge()));
+            writeString(override(def.getExpiration(), defaults.getExpiration()));
+            writeString(override(def.getLogFile(), defaults.getLogFile()));
+            writeMap(override(def.getMap(), defaults.getMap()));
+        }
+
+        private void writeDefaults(SmartsTrapDefaults defaults) throws IOException {
+            // 0 is a new set of defaults, and anything else refers to a previous one
+            final Integer index = defaultsIndex.get(defaults);
+            if (index != null) {
+                writeVarInt(index + 1);
+                return;
+            }
+            defaultsIndex.put(defaults, defaultsIndex.size());
+            writeVarInt(0);
+            writeString(defaults.getClassName());
+            writeString(defaults.getElementName());
+            writeString(defaults.getInstanceName());
+            writeString(defaults.getEventName());
+            writeSeverity(defaults.getSeverity());
+            writeString(defaults.getEventText());
+            writeString(defaults.getState());
+            writeString(defaults.getEventType());
+            writeString(defaults.getUnknownAgent());
+            writeString(defaults.getClearOnAcknowledge());
+            writeString(defaults.getExpiration());
+            writeString(defaults.getLogFile());
+            writeMap(defaults.getMap());
+        }
+
+        private static <T> T override(T value, T defaultValue) {
+            return Objects.equals(value, defaultValue) ? null : value;
+        }
+
+        private void writeSeverity(Integer severity) throws IOException {
+            out.writeBoolean(severity != null);
+            if (severity != null) {
+                out.writeInt(severity);
+            }
+        }
+
+        private void writeMap(Map<String, Map<String, String>> map) throws IOException {
+            // 0 is null, anything else is the number of entries plus one
+            if (map == null) {
+                writeVarInt(0);
+                return;
+            }
+            writeVarInt(map.size() + 1);
+            for (Map.Entry<String, Map<String, String>> entry : map.entrySet()) {
+                writeString(entry.getKey());
+                writeVarInt(entry.getValue().size());
+                for (Map.Entry<String, String> mapping : entry.getValue().entrySet()) {
+                    writeString(mapping.getKey());
+                    writeString(mapping.getValue());
+                }
+            }
+        }
+
+        private void writeString(String s) throws IOException {
+            // 0 is null, 1 is a new string, and anything else refers to a previous string
+            if (s == null) {
+                writeVarInt(0);
+                return;
+            }
+            final Integer index = strings.get(s);
+            if (index != null) {
+                writeVarInt(index + 2);
+                return;
+            }
+            strings.put(s, strings.size());
+            writeVarInt(1);
+            final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private void writeVarInt(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+    }
+
+    private static class Decoder {
+        private final DataInputStream in;
+        private final List<String> strings = new ArrayList<>();
+        private final List<SmartsTrapDefaults> defaults = new ArrayList<>();
+
+        private Decoder(DataInputStream in) {
+            this.in = in;
+        }
+
+        private SmartsTrapDef readDef() throws IOException {
+            final SmartsTrapDef def = new SmartsTrapDef();
+            def.setDefaults(readDefaults());
+            def.setEnterprise(readString());
+            def.setTrapNumber(readString());
+            def.setSpecific(readString());
+            readValues(def);
+            return def;
+        }
+
+        private SmartsTrapDefaults readDefaults() throws IOException {
+            final int index = readVarInt();
+            if (index > 0) {
+                return defaults.get(index - 1);
+            }
+            final SmartsTrapDef values = new SmartsTrapDef();
+            readValues(values);
+            final SmartsTrapDefaults d = SmartsTrapDefaults.of(values);
+            defaults.add(d);
+            return d;
+        }
+
+        private void readValues(SmartsTrapDef def) throws IOException {
+            def.setClassName(readString());
+            def.setElementName(readString());
+            def.setInstanceName(readString());
+            def.setEventName(readString());
+            def.setSeverity(in.readBoolean() ? in.readInt() : null);
+            def.setEventText(readString());
+            def.setState(readString());
+            def.setEventType(readString());
+            def.setUnknownAgent(readString());
+            def.setClearOnAcknowledge(readString());
+            def.setExpiration(readString());
+            def.setLogFile(readString());
+
+            final int mapSize = readVarInt();
+            if (mapSize == 0) {
+                return;
+            }
+            final Map<String, Map<String, String>> map = new LinkedHashMap<>();
+            for (int i = 0; i < mapSize - 1; i++) {
+                final String var = readString();
+                final int numMappings = readVarInt();
+                final Map<String, String> mappings = new LinkedHashMap<>();
+                for (int j = 0; j < numMappings; j++) {
+                    mappings.put(readString(), readString());
+                }
+                map.put(var, mappings);
+            }
+            def.setMap(map);
+        }
+
+        private String readString() throws IOException {
+            final int index = readVarInt();
+            if (index == 0) {
+                return null;
+            } else if (index > 1) {
+                return strings.get(index - 2);
+            }
+            final byte[] bytes = new byte[readVarInt()];
+            in.readFully(bytes);
+            final String s = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(s);
+            return s;
+        }
+
+        private int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                final int b = in.readUnsignedByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed variable length integer.");
+        }
+    }
+}
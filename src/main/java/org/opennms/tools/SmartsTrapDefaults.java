@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+import java.util.Map;
+import java.util.Objects;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * The values of a BEGIN_DEFAULTS ... END_DEFAULTS block.
+ *
+ * Instances are immutable and shared by all of the {@link SmartsTrapDef}s that follow
+ * the block, which only store the values they override.
+ */
+public final class SmartsTrapDefaults {
+
+    /**
+     * Used by definitions that are not preceded by a defaults block.
+     */
+    public static final SmartsTrapDefaults EMPTY = new SmartsTrapDefaults();
+
+    private final String className;
+    private final String elementName;
+    private final String instanceName;
+    private final String eventName;
+    private final Integer severity;
+    private final String eventText;
+    private final String state;
+    private final SmartsTrapDef.State stateValue;
+    private final String eventType;
+    private final SmartsTrapDef.EventType eventTypeValue;
+    private final String unknownAgent;
+    private final boolean createUnknownAgent;
+    private final String clearOnAcknowledge;
+    private final boolean clearOnAcknowledgeValue;
+    private final String expiration;
+    private final String logFile;
+    private final Map<String, Map<String, String>> map;
+
+    private SmartsTrapDefaults() {
+        className = null;
+        elementName = null;
+        instanceName = null;
+        eventName = null;
+        severity = null;
+        eventText = null;
+        state = null;
+        stateValue = null;
+        eventType = null;
+        eventTypeValue = null;
+        unknownAgent = null;
+        createUnknownAgent = false;
+        clearOnAcknowledge = null;
+        clearOnAcknowledgeValue = false;
+        expiration = null;
+        logFile = null;
+        map = ImmutableMap.of();
+    }
+
+    private SmartsTrapDefaults(SmartsTrapDef def) {
+        className = def.getClassName();
+        elementName = def.getElementName();
+        instanceName = def.getInstanceName();
+        eventName = def.getEventName();
+        severity = def.hasSeverity() ? def.getSeverity() : null;
+        eventText = def.getEventText();
+        state = def.getState();
+        stateValue = def.getStateValue();
+        eventType = def.getEventType();
+        eventTypeValue = def.getEventTypeValue();
+        unknownAgent = def.getUnknownAgent();
+        createUnknownAgent = def.isCreateUnknownAgent();
+        clearOnAcknowledge = def.getClearOnAcknowledge();
+        clearOnAcknowledgeValue = def.isClearOnAcknowledge();
+        expiration = def.getExpiration();
+        logFile = def.getLogFile();
+
+        final ImmutableMap.Builder<String, Map<String, String>> mapBuilder = ImmutableMap.builder();
+        for (Map.Entry<String, Map<String, String>> entry : def.getMap().entrySet()) {
+            mapBuilder.put(entry.getKey(), ImmutableMap.copyOf(entry.getValue()));
+        }
+        map = mapBuilder.build();
+    }
+
+    /**
+     * Creates the defaults from the values of a definition that was parsed
+     * from the body of a defaults block.
+     */
+    public static SmartsTrapDefaults of(SmartsTrapDef def) {
+        return new SmartsTrapDefaults(def);
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public String getElementName() {
+        return elementName;
+    }
+
+    public String getInstanceName() {
+        return instanceName;
+    }
+
+    public String getEventName() {
+        return eventName;
+    }
+
+    /**
+     * @return the severity, or null if the block does not define one
+     */
+    public Integer getSeverity() {
+        return severity;
+    }
+
+    public String getEventText() {
+        return eventText;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    /**
+     * @return the parsed state, or null if it is not set or refers to a variable
+     */
+    public SmartsTrapDef.State getStateValue() {
+        return stateValue;
+    }
+
+    public String getEventType() {
+        return eventType;
+    }
+
+    public SmartsTrapDef.EventType getEventTypeValue() {
+        return eventTypeValue;
+    }
+
+    public boolean isCreateUnknownAgent() {
+        return createUnknownAgent;
+    }
+
+    public boolean isClearOnAcknowledge() {
+        return clearOnAcknowledgeValue;
+    }
+
+    public String getUnknownAgent() {
+        return unknownAgent;
+    }
+
+    public String getClearOnAcknowledge() {
+        return clearOnAcknowledge;
+    }
+
+    public String getExpiration() {
+        return expiration;
+    }
+
+    public String getLogFile() {
+        return logFile;
+    }
+
+    public Map<String, Map<String, String>> getMap() {
+        return map;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SmartsTrapDefaults that = (SmartsTrapDefaults) o;
+        return Objects.equals(className, that.className) &&
+                Objects.equals(elementName, that.elementName) &&
+                Objects.equals(instanceName, that.instanceName) &&
+                Objects.equals(eventName, that.eventName) &&
+                Objects.equals(severity, that.severity) &&
+                Objects.equals(eventText, that.eventText) &&
+                Objects.equals(state, that.state) &&
+                Objects.equals(eventType, that.eventType) &&
+                Objects.equals(unknownAgent, that.unknownAgent) &&
+                Objects.equals(clearOnAcknowledge, that.clearOnAcknowledge) &&
+                Objects.equals(expiration, that.expiration) &&
+                Objects.equals(logFile, that.logFile) &&
+                Objects.equals(map, that.map);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(className, elementName, instanceName, eventName, severity, eventText, state, eventType, unknownAgent, clearOnAcknowledge, expiration, logFile, map);
+    }
+
+    @Override
+    public String toString() {
+        return "SmartsTrapDefaults{" +
+                "className='" + className + '\'' +
+                ", elementName='" + elementName + '\'' +
+                ", instanceName='" + instanceName + '\'' +
+                ", eventName='" + eventName + '\'' +
+                ", severity=" + severity +
+                ", eventText='" + eventText + '\'' +
+                ", state='" + state + '\'' +
+                ", eventType='" + eventType + '\'' +
+                ", unknownAgent='" + unknownAgent + '\'' +
+                ", clearOnAcknowledge='" + clearOnAcknowledge + '\'' +
+                ", expiration='" + expiration + '\'' +
+                ", logFile='" + logFile + '\'' +
+                ", map=" + map +
+                '}';
+    }
+}
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The definitions parsed from a file, along with the hashes of the
+ * blocks they were parsed from.
+ *
+ * These can be handed back to {@link SmartsTrapParser#parse(SmartsTrapParseResult)}
+ * so that only the blocks that changed are parsed again.
+ */
+public class SmartsTrapParseResult {
+    private final List<SmartsTrapDef> definitions;
+    private final long[] blockHashes;
+
+    public SmartsTrapParseResult(List<SmartsTrapDef> definitions, long[] blockHashes) {
+        this.definitions = Collections.unmodifiableList(Objects.requireNonNull(definitions));
+        this.blockHashes = Objects.requireNonNull(blockHashes);
+        if (definitions.size() != blockHashes.length) {
+            throw new IllegalArgumentException("Expected one hash per definition.");
+        }
+    }
+
+    /**
+     * @return the definitions, in file order
+     */
+    public List<SmartsTrapDef> getDefinitions() {
+        return definitions;
+    }
+
+    /**
+     * @return the hash of the block from which the i-th definition was parsed
+     */
+    public long getBlockHash(int i) {
+        return blockHashes[i];
+    }
+
+    public int size() {
+        return definitions.size();
+    }
+}
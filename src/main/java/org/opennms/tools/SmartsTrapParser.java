@@ -30,202 +30,586 @@ package org.opennms.tools;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Charsets;
-import com.google.common.base.Joiner;
-import com.google.common.base.Splitter;
-import com.google.common.base.Strings;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.primitives.Longs;
 import com.google.common.io.Files;
-import com.google.common.io.LineProcessor;
 
 /**
  * Mishmash of code used to parse the Smarts trap definitions.
  */
 public class SmartsTrapParser {
+    private static final Logger LOG = LoggerFactory.getLogger(SmartsTrapParser.class);
+
+    /**
+     * Version of the parser. This must be incremented whenever a change
+     * alters the definitions produced from the same file, so that
+     * any previously cached definitions are discarded.
+     */
+    public static final int VERSION = 2;
+
+    /**
+     * Orders definitions by enterprise. The sort is stable, so definitions
+     * with the same enterprise are kept in file order.
+     */
+    public static final Comparator<SmartsTrapDef> ENTERPRISE_ORDER = Comparator.comparing(SmartsTrapDef::getEnterprise);
+
+    /**
+     * Number of blocks that are read before being parsed in parallel.
+     */
+    private static final int PARALLEL_BATCH_SIZE = 8192;
 
     private final File file;
+    private int threads = 1;
+    private TrapDefIndex index;
+    private final StringPool stringPool = new StringPool();
 
     public SmartsTrapParser(File file) {
         this.file = Objects.requireNonNull(file);
     }
 
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Sets the number of threads used to parse the definitions.
+     *
+     * @param threads 1 to parse sequentially, 0 or less to use all of the available cores
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * The pool shared by the definitions parsed by this parser.
+     */
+    public StringPool getStringPool() {
+        return stringPool;
+    }
+
     public List<SmartsTrapDef> getTrapDefinitions() throws IOException {
-        String conf = Files.asCharSource(file, Charsets.UTF_8).readLines(new LineProcessor<String>() {
-            List<String> result = Lists.newArrayList();
-
-            Pattern commentRegex = Pattern.compile("\\s*#.*");
-            Pattern whiteSpaceRegex = Pattern.compile("^\\s*$");
-            public boolean processLine(String line) {
-                if (!commentRegex.matcher(line).matches() && !whiteSpaceRegex.matcher(line).matches()) {
-                    result.add(line.trim());
+        return getTrapDefinitions(true);
+    }
+
+    /**
+     * Parses all of the trap definitions.
+     *
+     * @param sorted when true, the definitions are sorted by enterprise,
+     *               otherwise they are returned in file order
+     */
+    public List<SmartsTrapDef> getTrapDefinitions(boolean sorted) throws IOException {
+        final List<SmartsTrapDef> trapDefs = Lists.newArrayList();
+        parseTrapDefinitions(trapDefs::add);
+        if (sorted) {
+            trapDefs.sort(ENTERPRISE_ORDER);
+        }
+        return trapDefs;
+    }
+
+    /**
+     * Lazily streams the trap definitions in file order. The file is read as
+     * the stream is consumed, so callers can stop early, and must close the stream
+     * when done.
+     *
+     * When more than one thread is configured, the blocks are read in batches
+     * and the definitions in each batch are parsed in parallel.
+     */
+    public Stream<SmartsTrapDef> streamTrapDefinitions() throws IOException {
+        final SmartsTrapReader reader = new SmartsTrapReader(Files.newReader(file, Charsets.UTF_8), stringPool);
+        if (threads == 1) {
+            return reader.stream();
+        }
+
+        final ForkJoinPool pool = new ForkJoinPool(ParallelUtils.getEffectiveThreads(threads));
+        return StreamSupport.stream(new ParallelBlockSpliterator(reader, pool), false)
+                .onClose(() -> {
+                    pool.shutdown();
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    /**
+     * Lazily streams the trap definitions.
+     *
+     * @param sorted when true, the definitions are sorted by enterprise.
+     *               This requires all of the definitions to be read before the first
+     *               one is returned.
+     */
+    public Stream<SmartsTrapDef> streamTrapDefinitions(boolean sorted) throws IOException {
+        final Stream<SmartsTrapDef> stream = streamTrapDefinitions();
+        return sorted ? stream.sorted(ENTERPRISE_ORDER) : stream;
+    }
+
+    /**
+     * Parses the trap definitions in a single pass, handing each definition
+     * to the consumer as soon as it is read. Definitions are passed in the
+     * order in which they appear in the file.
+     */
+    public void parseTrapDefinitions(Consumer<SmartsTrapDef> consumer) throws IOException {
+        try (Stream<SmartsTrapDef> defs = streamTrapDefinitions()) {
+            defs.forEachOrdered(consumer);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        LOG.info("Parsed trap definitions from {}: {}.", file, stringPool);
+    }
+
+    /**
+     * Parses all of the trap definitions, keeping track of the blocks
+     * they were parsed from.
+     */
+    public SmartsTrapParseResult parse() throws IOException {
+        return parse(null).getResult();
+    }
+
+    /**
+     * Parses the trap definitions, only parsing the blocks that changed
+     * since the previous result. The definitions of the unchanged blocks are reused as-is.
+     *
+     * @param previous the result of a previous parse of the same file, or null to parse all of the blocks
+     */
+    public SmartsTrapChanges parse(SmartsTrapParseResult previous) throws IOException {
+        // Index the previous definitions by the hash of their block
+        final Map<Long, Deque<SmartsTrapDef>> previousDefsByHash = new HashMap<>();
+        if (previous != null) {
+            for (int i = 0; i < previous.size(); i++) {
+                previousDefsByHash.computeIfAbsent(previous.getBlockHash(i), h -> new ArrayDeque<>())
+                        .add(previous.getDefinitions().get(i));
+            }
+        }
+
+        final List<SmartsTrapDef> defs = new ArrayList<>();
+        final List<Long> hashes = new ArrayList<>();
+        final Set<SmartsTrapDef> reusedDefs = Collections.newSetFromMap(new IdentityHashMap<>());
+        final List<SmartsTrapDef> parsedDefs = new ArrayList<>();
+
+        final ForkJoinPool pool = threads != 1 ? new ForkJoinPool(ParallelUtils.getEffectiveThreads(threads)) : null;
+        try (SmartsTrapReader reader = new SmartsTrapReader(Files.newReader(file, Charsets.UTF_8), stringPool)) {
+            final List<SmartsTrapReader.Block> blocks = new ArrayList<>(PARALLEL_BATCH_SIZE);
+            final List<SmartsTrapReader.Block> blocksToParse = new ArrayList<>();
+            final List<Integer> indicesToParse = new ArrayList<>();
+            while (readBatch(reader, blocks) > 0) {
+                for (SmartsTrapReader.Block block : blocks) {
+                    final long hash = block.getHash();
+                    final Deque<SmartsTrapDef> candidates = previousDefsByHash.get(hash);
+                    final SmartsTrapDef previousDef = candidates != null ? candidates.poll() : null;
+                    if (previousDef != null) {
+                        reusedDefs.add(previousDef);
+                    } else {
+                        blocksToParse.add(block);
+                        indicesToParse.add(defs.size());
+                    }
+                    defs.add(previousDef);
+                    hashes.add(hash);
+                }
+
+                final List<SmartsTrapDef> parsedBatch = pool != null ?
+                        ParallelUtils.map(pool, blocksToParse, SmartsTrapReader.Block::parse) :
+                        blocksToParse.stream().map(SmartsTrapReader.Block::parse).collect(Collectors.toList());
+                for (int i = 0; i < parsedBatch.size(); i++) {
+                    defs.set(indicesToParse.get(i), parsedBatch.get(i));
                 }
-                return true;
+                parsedDefs.addAll(parsedBatch);
+                blocks.clear();
+                blocksToParse.clear();
+                indicesToParse.clear();
             }
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
 
-            public String getResult() {
-                Joiner joiner = Joiner.on("\n").skipNulls();
-                return joiner.join(result);
+        LOG.info("Parsed trap definitions from {}: {}.", file, stringPool);
+
+        // Previous definitions that were not reused were either modified or removed
+        final ListMultimap<TrapKey, SmartsTrapDef> staleDefsByKey = ArrayListMultimap.create();
+        if (previous != null) {
+            for (SmartsTrapDef previousDef : previous.getDefinitions()) {
+                if (!reusedDefs.contains(previousDef)) {
+                    staleDefsByKey.put(TrapKey.of(previousDef), previousDef);
+                }
             }
-          });
+        }
 
-        List<SmartsTrapDef> trapDefs = parseTrapDefinitions(conf);
-        Collections.sort(trapDefs, new Comparator<SmartsTrapDef>() {
-            public int compare(SmartsTrapDef d1, SmartsTrapDef d2) {
-                return d1.getEnterprise().compareTo(d2.getEnterprise());
+        final List<SmartsTrapDef> added = new ArrayList<>();
+        final List<SmartsTrapDef> modified = new ArrayList<>();
+        for (SmartsTrapDef parsedDef : parsedDefs) {
+            final List<SmartsTrapDef> staleDefs = staleDefsByKey.get(TrapKey.of(parsedDef));
+            if (staleDefs.isEmpty()) {
+                added.add(parsedDef);
+            } else {
+                staleDefs.remove(0);
+                modified.add(parsedDef);
             }
-        });
-        
-        return trapDefs;
+        }
+        final List<SmartsTrapDef> removed = new ArrayList<>(staleDefsByKey.values());
+
+        final SmartsTrapParseResult result = new SmartsTrapParseResult(defs, Longs.toArray(hashes));
+        return new SmartsTrapChanges(result, added, removed, modified, reusedDefs.size());
     }
 
-    private List<SmartsTrapDef> parseTrapDefinitions(String conf) {
-        final List<SmartsTrapDef> trapDefs = Lists.newArrayList();
+    /**
+     * Reads up to a batch worth of blocks.
+     *
+     * @return the number of blocks read
+     */
+    private static int readBatch(SmartsTrapReader reader, List<SmartsTrapReader.Block> blocks) throws IOException {
+        SmartsTrapReader.Block block;
+        while (blocks.size() < PARALLEL_BATCH_SIZE && (block = reader.nextBlock()) != null) {
+            blocks.add(block);
+        }
+        return blocks.size();
+    }
 
-        Pattern regex = Pattern.compile("BEGIN_TRAP (?<enterprise>.*?) (?<trapnumber>.*?) (?<specific>.*?)"
-                + "\\s*\\n(?<definition>.*?)END_TRAP", Pattern.DOTALL);
-        Matcher regexMatcher = regex.matcher(conf);
-        while(regexMatcher.find()) {
-            final String enterprise = regexMatcher.group("enterprise");
-            final String trapNumber = regexMatcher.group("trapnumber");
-            final String specific = regexMatcher.group("specific");
-            final String definition = regexMatcher.group("definition");
+    /**
+     * Reads the blocks in batches, and parses the blocks of each batch in parallel.
+     */
+    private static class ParallelBlockSpliterator extends Spliterators.AbstractSpliterator<SmartsTrapDef> {
+        private final SmartsTrapReader reader;
+        private final ForkJoinPool pool;
+        private final List<SmartsTrapReader.Block> blocks = new ArrayList<>(PARALLEL_BATCH_SIZE);
+        private Iterator<SmartsTrapDef> batch = Collections.emptyIterator();
 
-            SmartsTrapDef def = new SmartsTrapDef();
-            def.setEnterprise(enterprise);
-            def.setTrapNumber(trapNumber);
-            def.setSpecific(specific);
-            parseDefinition(def, definition);
-            trapDefs.add(def);
+        private ParallelBlockSpliterator(SmartsTrapReader reader, ForkJoinPool pool) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.reader = reader;
+            this.pool = pool;
         }
 
-        return trapDefs;
+        @Override
+        public boolean tryAdvance(Consumer<? super SmartsTrapDef> action) {
+            if (!batch.hasNext()) {
+                try {
+                    readBatch(reader, blocks);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                batch = ParallelUtils.map(pool, blocks, SmartsTrapReader.Block::parse).iterator();
+                blocks.clear();
+            }
+            if (!batch.hasNext()) {
+                return false;
+            }
+            action.accept(batch.next());
+            return true;
+        }
     }
 
-    protected static void parseDefinition(SmartsTrapDef def, String definition) {
-        Pattern regex = Pattern.compile("^\\s*(?<tag>.*?):\\s*(?<value>.*)\\s*$");
+    /**
+     * The tags we extract from the definitions. Any other tag is ignored.
+     */
+    private enum Tag {
+        CLASS_NAME("ClassName"),
+        ELEMENT_NAME("ElementName"),
+        INSTANCE_NAME("InstanceName"),
+        EVENT_NAME("EventName"),
+        SEVERITY("Severity"),
+        EXPIRATION("Expiration"),
+        STATE("State"),
+        EVENT_TEXT("EventText"),
+        EVENT_TYPE("EventType"),
+        UNKNOWN_AGENT("UnknownAgent"),
+        CLEAR_ON_ACKNOWLEDGE("ClearOnAcknowledge"),
+        LOG_FILE("LogFile"),
+        MAP("Map");
 
-        boolean hasMap = false;
-        List<String> lines = Splitter.on("\n").splitToList(definition);
-        for (String line : lines) {
-            Matcher m = regex.matcher(line);
-            if (m.matches()) {
-                final String tag = m.group("tag");
-                final String value = m.group("value");
-                switch(tag) {
-                case "ClassName":
-                    def.setClassName(value);
-                    break;
-                case "ElementName":
-                    def.setElementName(value);
-                    break;
-                case "InstanceName":
-                    def.setInstanceName(value);
-                    break;
-                case "EventName":
-                    def.setEventName(value);
-                    break;
-                case "Severity":
-                    try {
-                        def.setSeverity(Integer.parseInt(value));
-                    } catch (NumberFormatException nfe) {
-                        def.setSeverity(-1);
-                    }
-                    break;
-                case "Expiration":
-                    def.setExpiration(value);
-                    break;
-                case "State":
-                    def.setState(value);
-                    break;
-                case "EventText":
-                    def.setEventText(value);
-                    break;
-                case "EventType":
-                    def.setEventType(value);
-                    break;
-                case "UnknownAgent":
-                    def.setUnknownAgent(value);
-                    break;
-                case "ClearOnAcknowledge":
-                    def.setClearOnAcknowledge(value);
-                    break;
-                case "LogFile":
-                    def.setLogFile(value);
-                    break;
-                case "Map":
-                    hasMap = true;
-                    break;
+        private static final Tag[] TAGS = values();
 
-                //default:
-                //    throw new RuntimeException("unknown tag:" + tag);
+        private final String name;
+
+        Tag(String name) {
+            this.name = name;
+        }
+
+        private static Tag lookup(CharSequence seq, int start, int end) {
+            for (Tag tag : TAGS) {
+                if (regionEquals(seq, start, end, tag.name)) {
+                    return tag;
                 }
             }
+            return null;
         }
+    }
 
-        if (hasMap) {
-            Pattern mapRegex = Pattern.compile(".*Map:.*?(?<value>\\{.*\\}).*", Pattern.DOTALL);
-            Matcher m = mapRegex.matcher(definition);
-            if (m.matches()) {
-                def.setMap(parseMap(m.group("value")));
+    /**
+     * Parses the body of a definition i.e.:
+     *
+     * <pre>
+     *     ClassName:          Rectifier
+     *     State:              $V1$
+     *     Map:                {
+     *                           V1
+     *                           0 = CLEAR
+     *                           1 = NOTIFY
+     *                         }
+     * </pre>
+     *
+     * The body is scanned once, character by character. Strings are only
+     * allocated for the values that are kept.
+     */
+    protected static void parseDefinition(SmartsTrapDef def, CharSequence definition) {
+        parseDefinition(def, definition, StringPool.DISABLED);
+    }
+
+    /**
+     * Parses the body of a definition, sharing the values that repeat
+     * between definitions through the given pool.
+     */
+    protected static void parseDefinition(SmartsTrapDef def, CharSequence definition, StringPool pool) {
+        final int length = definition.length();
+        int pos = 0;
+        while (pos < length) {
+            final int lineEnd = indexOf(definition, '\n', pos, length);
+            final int tagStart = skipWhitespace(definition, pos, lineEnd);
+            final int colon = indexOf(definition, ':', tagStart, lineEnd);
+            if (colon >= lineEnd) {
+                // Not a tag, skip the line
+                pos = lineEnd + 1;
+                continue;
+            }
+
+            final Tag tag = Tag.lookup(definition, tagStart, colon);
+            final int valueStart = skipWhitespace(definition, colon + 1, lineEnd);
+            final int valueEnd = trimTrailingWhitespace(definition, valueStart, lineEnd);
+            pos = lineEnd + 1;
+            if (tag == null) {
+                continue;
+            }
+
+            switch(tag) {
+            case CLASS_NAME:
+                def.setClassName(pool.intern(definition, valueStart, valueEnd));
+                break;
+            case ELEMENT_NAME:
+                def.setElementName(pool.intern(definition, valueStart, valueEnd));
+                break;
+            case INSTANCE_NAME:
+                def.setInstanceName(pool.intern(definition, valueStart, valueEnd));
+                break;
+            case EVENT_NAME:
+                def.setEventName(value(definition, valueStart, valueEnd));
+                break;
+            case SEVERITY:
+                def.setSeverity(parseInt(definition, valueStart, valueEnd, -1));
+                break;
+            case EXPIRATION:
+                def.setExpiration(pool.intern(definition, valueStart, valueEnd));
+                break;
+            case STATE:
+                def.setState(pool.intern(definition, valueStart, valueEnd));
+                break;
+            case EVENT_TEXT:
+                def.setEventText(value(definition, valueStart, valueEnd));
+                break;
+            case EVENT_TYPE:
+                def.setEventType(pool.intern(definition, valueStart, valueEnd));
+                break;
+            case UNKNOWN_AGENT:
+                def.setUnknownAgent(pool.intern(definition, valueStart, valueEnd));
+                break;
+            case CLEAR_ON_ACKNOWLEDGE:
+                def.setClearOnAcknowledge(pool.intern(definition, valueStart, valueEnd));
+                break;
+            case LOG_FILE:
+                def.setLogFile(pool.intern(definition, valueStart, valueEnd));
+                break;
+            case MAP:
+                // The map may span several lines, continue after it
+                final Map<String, Map<String, String>> map = new LinkedHashMap<>();
+                final int mapEnd = parseMap(definition, valueStart, length, map, pool);
+                if (mapEnd > valueStart) {
+                    def.setMap(map);
+                    pos = mapEnd;
+                }
+                break;
             }
         }
     }
 
-    protected static Map<String, Map<String, String>> parseMap(String value) {
-        /*        Map:                {
-                              V1
-                              0 = CLEAR
-                              1 = NOTIFY
-                            }
-        */
-        Map<String, Map<String, String>> map = new LinkedHashMap<>();
+    protected static Map<String, Map<String, String>> parseMap(CharSequence value) {
+        final Map<String, Map<String, String>> map = new LinkedHashMap<>();
+        parseMap(value, skipWhitespace(value, 0, value.length()), value.length(), map, StringPool.DISABLED);
+        return map;
+    }
 
-        Pattern s_bracketsPattern = Pattern.compile("\\{(.*?)\\}", Pattern.DOTALL);
-        Matcher m = s_bracketsPattern.matcher(value);
+    /**
+     * Parses one or more consecutive map blocks i.e.:
+     *
+     * <pre>
+     *     {
+     *       V1
+     *       0 = CLEAR
+     *       1 = NOTIFY
+     *     }
+     * </pre>
+     *
+     * @return the position following the last block, or start if there is no block at the given position
+     */
+    private static int parseMap(CharSequence seq, int start, int end, Map<String, Map<String, String>> map, StringPool pool) {
+        int pos = skipWhitespace(seq, start, end);
+        if (pos >= end || seq.charAt(pos) != '{') {
+            return start;
+        }
 
-        while (m.find()) {
-            String innerBrackets = m.group(1);
-            String lines[] = innerBrackets.split("\n");
+        while (pos < end && seq.charAt(pos) == '{') {
+            pos++;
+            Map<String, String> values = null;
+            while (pos < end) {
+                // Lines end at a new line, or at the closing bracket
+                int lineEnd = pos;
+                while (lineEnd < end && seq.charAt(lineEnd) != '\n' && seq.charAt(lineEnd) != '}') {
+                    lineEnd++;
+                }
 
-            String var = null;
-            boolean first = true;
-            for (String line : lines) {
-                if (Strings.isNullOrEmpty(line.trim())) {
-                    continue;
+                final int lineStart = skipWhitespace(seq, pos, lineEnd);
+                final int trimmedEnd = trimTrailingWhitespace(seq, lineStart, lineEnd);
+                if (lineStart < trimmedEnd) {
+                    if (values == null) {
+                        // The first line holds the name of the variable
+                        values = new LinkedHashMap<>();
+                        map.put(pool.intern(seq, lineStart, trimmedEnd), values);
+                    } else {
+                        // The following lines hold the mappings
+                        final int equals = indexOf(seq, '=', lineStart, trimmedEnd);
+                        if (equals < trimmedEnd) {
+                            values.put(pool.intern(seq, lineStart, trimTrailingWhitespace(seq, lineStart, equals)),
+                                    pool.intern(seq, skipWhitespace(seq, equals + 1, trimmedEnd), trimmedEnd));
+                        }
+                    }
                 }
 
-                if (first) {
-                    var = line.trim();
-                    first = false;
-                    map.put(var, new LinkedHashMap<>());
-                    continue;
+                pos = lineEnd + 1;
+                if (lineEnd >= end || seq.charAt(lineEnd) == '}') {
+                    break;
                 }
+            }
+            pos = skipWhitespace(seq, Math.min(pos, end), end);
+        }
+        return pos;
+    }
+
+    private static String value(CharSequence seq, int start, int end) {
+        return seq.subSequence(start, end).toString();
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000B';
+    }
+
+    private static int skipWhitespace(CharSequence seq, int start, int end) {
+        int pos = start;
+        while (pos < end && isWhitespace(seq.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int trimTrailingWhitespace(CharSequence seq, int start, int end) {
+        int pos = end;
+        while (pos > start && isWhitespace(seq.charAt(pos - 1))) {
+            pos--;
+        }
+        return pos;
+    }
 
-                String parts[] = line.split("=");
-                String lhs = parts[0].trim();
-                String rhs = parts[1].trim();
-                map.get(var).put(lhs, rhs);
+    private static int indexOf(CharSequence seq, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (seq.charAt(i) == c) {
+                return i;
             }
         }
+        return end;
+    }
 
-        return map;
+    private static boolean regionEquals(CharSequence seq, int start, int end, String s) {
+        if (end - start != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (seq.charAt(start + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int parseInt(CharSequence seq, int start, int end, int defaultValue) {
+        int pos = start;
+        boolean negative = false;
+        if (pos < end && (seq.charAt(pos) == '-' || seq.charAt(pos) == '+')) {
+            negative = seq.charAt(pos) == '-';
+            pos++;
+        }
+        if (pos >= end) {
+            return defaultValue;
+        }
+
+        long value = 0;
+        for (; pos < end; pos++) {
+            final char c = seq.charAt(pos);
+            if (c < '0' || c > '9') {
+                return defaultValue;
+            }
+            value = value * 10 + (c - '0');
+            if (value > (long)Integer.MAX_VALUE + 1) {
+                return defaultValue;
+            }
+        }
+        value = negative ? -value : value;
+        return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE ? (int)value : defaultValue;
+    }
+
+    /**
+     * Retrieves the index over the definitions. The index is built the first time
+     * it is requested, any changes made to the file afterwards are not reflected.
+     */
+    public synchronized TrapDefIndex getIndex() throws IOException {
+        if (index == null) {
+            index = new TrapDefIndex(getTrapDefinitions(false));
+        }
+        return index;
     }
 
     public SmartsTrapDef getTrapDefinition(String enterprise, String trapNumber, String specific) throws IOException {
-        return getTrapDefinitions().stream()
-                .filter(d -> enterprise.equals(d.getEnterprise()))
-                .filter(d -> trapNumber.equals(d.getTrapNumber()))
-                .filter(d -> specific.equals(d.getSpecific()))
-                .findFirst()
-                .get();
+        final SmartsTrapDef def = getIndex().get(enterprise, trapNumber, specific);
+        if (def == null) {
+            throw new NoSuchElementException(String.format("No trap definition for %s %s %s",
+                    enterprise, trapNumber, specific));
+        }
+        return def;
     }
 }
@@ -0,0 +1,263 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Reads the Smarts trap definitions line by line, building each
+ * {@link SmartsTrapDef} as soon as its END_TRAP line is read.
+ *
+ * Only the lines of the current definition are kept in memory. Each BEGIN_DEFAULTS
+ * block replaces the defaults of the definitions that follow it.
+ */
+public class SmartsTrapReader implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(SmartsTrapReader.class);
+
+    private static final String BEGIN_TRAP = "BEGIN_TRAP";
+    private static final String END_TRAP = "END_TRAP";
+    private static final String BEGIN_DEFAULTS = "BEGIN_DEFAULTS";
+    private static final String END_DEFAULTS = "END_DEFAULTS";
+    private static final Splitter s_headerSplitter = Splitter.on(CharMatcher.whitespace()).omitEmptyStrings();
+    private static final HashFunction s_blockHashFunction = Hashing.murmur3_128();
+
+    private final BufferedReader reader;
+    private final StringBuilder definition = new StringBuilder();
+    private final StringPool stringPool;
+    private SmartsTrapDefaults defaults = SmartsTrapDefaults.EMPTY;
+    private long defaultsHash = 0;
+
+    public SmartsTrapReader(Reader reader) {
+        this(reader, new StringPool());
+    }
+
+    /**
+     * @param stringPool used to share the values that repeat between definitions
+     */
+    public SmartsTrapReader(Reader reader, StringPool stringPool) {
+        Objects.requireNonNull(reader);
+        this.reader = reader instanceof BufferedReader ? (BufferedReader)reader : new BufferedReader(reader);
+        this.stringPool = Objects.requireNonNull(stringPool);
+    }
+
+    /**
+     * Reads the next trap definition.
+     *
+     * @return the definition, or null if there are no more definitions
+     */
+    public SmartsTrapDef next() throws IOException {
+        final Block block = nextBlock();
+        return block != null ? block.parse() : null;
+    }
+
+    /**
+     * Reads the next BEGIN_TRAP ... END_TRAP block without parsing its body.
+     *
+     * @return the block, or null if there are no more blocks
+     */
+    public Block nextBlock() throws IOException {
+        List<String> header = null;
+        boolean inDefaults = false;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.charAt(0) == '#') {
+                // Skip blank lines and comments
+                continue;
+            }
+
+            if (inDefaults) {
+                if (line.startsWith(END_DEFAULTS)) {
+                    setDefaults(definition.toString());
+                    inDefaults = false;
+                } else {
+                    definition.append(line).append('\n');
+                }
+                continue;
+            }
+
+            if (header == null) {
+                // Anything outside of a BEGIN_TRAP ... END_TRAP or defaults block is ignored
+                if (line.startsWith(BEGIN_TRAP)) {
+                    header = parseHeader(line);
+                    definition.setLength(0);
+                } else if (line.startsWith(BEGIN_DEFAULTS)) {
+                    inDefaults = true;
+                    definition.setLength(0);
+                }
+                continue;
+            }
+
+            if (line.startsWith(END_TRAP)) {
+                return new Block(stringPool.intern(header.get(1)), stringPool.intern(header.get(2)), stringPool.intern(header.get(3)),
+                        definition.toString(), defaults, defaultsHash, stringPool);
+            }
+            definition.append(line).append('\n');
+        }
+
+        if (inDefaults) {
+            LOG.warn("Missing {}. The last defaults block is ignored.", END_DEFAULTS);
+        }
+
+        if (header != null) {
+            LOG.warn("Missing {} for trap definition {} {} {}.", END_TRAP,
+                    header.get(1), header.get(2), header.get(3));
+        }
+        return null;
+    }
+
+    /**
+     * Exposes the remaining definitions as an ordered {@link Spliterator}. The
+     * definitions are only read from the underlying stream as the spliterator
+     * is advanced.
+     */
+    public Spliterator<SmartsTrapDef> spliterator() {
+        return new Spliterators.AbstractSpliterator<SmartsTrapDef>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super SmartsTrapDef> action) {
+                final SmartsTrapDef def;
+                try {
+                    def = next();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (def == null) {
+                    return false;
+                }
+                action.accept(def);
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Lazily streams the remaining definitions. Closing the stream closes the reader.
+     */
+    public Stream<SmartsTrapDef> stream() {
+        return StreamSupport.stream(spliterator(), false)
+                .onClose(() -> {
+                    try {
+                        close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    private void setDefaults(String body) {
+        final SmartsTrapDef def = new SmartsTrapDef();
+        SmartsTrapParser.parseDefinition(def, body, stringPool);
+        defaults = SmartsTrapDefaults.of(def);
+        defaultsHash = s_blockHashFunction.hashUnencodedChars(body).asLong();
+    }
+
+    private static List<String> parseHeader(String line) {
+        // BEGIN_TRAP <enterprise> <generic> <specific>
+        final List<String> tokens = s_headerSplitter.splitToList(line);
+        if (tokens.size() < 4 || !BEGIN_TRAP.equals(tokens.get(0))) {
+            LOG.warn("Ignoring trap definition with invalid header: {}", line);
+            return null;
+        }
+        return tokens;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * The raw contents of a single BEGIN_TRAP ... END_TRAP block.
+     *
+     * Blocks are independent of one another and can be parsed in any order.
+     */
+    public static class Block {
+        private final String enterprise;
+        private final String trapNumber;
+        private final String specific;
+        private final String definition;
+        private final SmartsTrapDefaults defaults;
+        private final long defaultsHash;
+        private final StringPool stringPool;
+
+        private Block(String enterprise, String trapNumber, String specific, String definition,
+                      SmartsTrapDefaults defaults, long defaultsHash, StringPool stringPool) {
+            this.enterprise = enterprise;
+            this.trapNumber = trapNumber;
+            this.specific = specific;
+            this.definition = definition;
+            this.defaults = defaults;
+            this.defaultsHash = defaultsHash;
+            this.stringPool = stringPool;
+        }
+
+        /**
+         * A 64-bit hash of the block's contents and of the defaults it inherits.
+         * Comments and indentation are not part of the contents.
+         */
+        public long getHash() {
+            return s_blockHashFunction.newHasher()
+                    .putUnencodedChars(enterprise).putChar(' ')
+                    .putUnencodedChars(trapNumber).putChar(' ')
+                    .putUnencodedChars(specific).putChar('\n')
+                    .putUnencodedChars(definition)
+                    .putLong(defaultsHash)
+                    .hash().asLong();
+        }
+
+        public SmartsTrapDef parse() {
+            final SmartsTrapDef def = new SmartsTrapDef();
+            def.setEnterprise(enterprise);
+            def.setTrapNumber(trapNumber);
+            def.setSpecific(specific);
+            def.setDefaults(defaults);
+            SmartsTrapParser.parseDefinition(def, definition, stringPool);
+            return def;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import com.google.common.math.LongMath;
+
+/**
+ * The combinations of mapped values for the variables referenced by the State of a definition.
+ *
+ * Each variable must have a map, whose keys are the values of the variable and whose values are
+ * what the variable is replaced with in the state. There is one combination for every element of
+ * the cross product of the maps. The combinations are only built as they are streamed, so the
+ * cross product is never held in memory.
+ */
+public class StateExpansion {
+    private static final Pattern s_varbindPattern = Pattern.compile("^V(\\d+)$");
+
+    private final SmartsTemplate state;
+    private final List<String> variables;
+    private final List<Integer> varbindIndexes;
+    private final List<List<Map.Entry<String, String>>> mappings;
+    private final long size;
+
+    private StateExpansion(SmartsTemplate state, List<String> variables, List<Integer> varbindIndexes,
+                           List<List<Map.Entry<String, String>>> mappings) {
+        this.state = state;
+        this.variables = Collections.unmodifiableList(variables);
+        this.varbindIndexes = Collections.unmodifiableList(varbindIndexes);
+        this.mappings = mappings;
+        long size = 1;
+        for (List<Map.Entry<String, String>> mapping : mappings) {
+            size = LongMath.saturatedMultiply(size, mapping.size());
+        }
+        this.size = size;
+    }
+
+    /**
+     * @throws IllegalStateException if one of the variables referenced by the state has no map
+     */
+    public static StateExpansion of(SmartsTrapDef def) {
+        final SmartsTemplate state = SmartsTemplate.compile(def.getState());
+        final List<String> variables = new ArrayList<>();
+        final List<Integer> varbindIndexes = new ArrayList<>();
+        final List<List<Map.Entry<String, String>>> mappings = new ArrayList<>();
+        for (String variable : state.getVariables()) {
+            if (variables.contains(variable)) {
+                // The same variable always has the same value
+                continue;
+            }
+            final Map<String, String> mapping = def.getMap().get(variable);
+            if (mapping == null) {
+                throw new IllegalStateException(String.format("No map found for %s in def: %s", variable, def.getEventName()));
+            }
+            final Matcher m = s_varbindPattern.matcher(variable);
+            variables.add(variable);
+            varbindIndexes.add(m.matches() ? Integer.valueOf(m.group(1)) : null);
+            mappings.add(new ArrayList<>(mapping.entrySet()));
+        }
+        return new StateExpansion(state, variables, varbindIndexes, mappings);
+    }
+
+    /**
+     * @return the distinct variables, in the order in which they are first referenced
+     */
+    public List<String> getVariables() {
+        return variables;
+    }
+
+    /**
+     * @return the number of combinations, or Long.MAX_VALUE if there are more than that
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Streams the combinations. The first variable varies the slowest, and each variable
+     * takes its values in the order of its map.
+     */
+    public Stream<Combination> stream() {
+        return LongStream.range(0, size).mapToObj(this::get);
+    }
+
+    private Combination get(long index) {
+        final String[] values = new String[mappings.size()];
+        final String[] mappedValues = new String[mappings.size()];
+        long remainder = index;
+        for (int i = mappings.size() - 1; i >= 0; i--) {
+            final List<Map.Entry<String, String>> mapping = mappings.get(i);
+            final Map.Entry<String, String> entry = mapping.get((int) (remainder % mapping.size()));
+            remainder /= mapping.size();
+            values[i] = entry.getKey();
+            mappedValues[i] = entry.getValue();
+        }
+        return new Combination(render(mappedValues), values);
+    }
+
+    private String render(String[] mappedValues) {
+        final List<String> literals = state.getLiterals();
+        final List<String> stateVariables = state.getVariables();
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < stateVariables.size(); i++) {
+            sb.append(literals.get(i)).append(mappedValues[variables.indexOf(stateVariables.get(i))]);
+        }
+        return sb.append(literals.get(literals.size() - 1)).toString();
+    }
+
+    /**
+     * A value for each of the variables, along with the state they lead to.
+     */
+    public class Combination {
+        private final String state;
+        private final String[] values;
+
+        private Combination(String state, String[] values) {
+            this.state = state;
+            this.values = values;
+        }
+
+        /**
+         * @return the state with each of the variables replaced by its mapped value
+         */
+        public String getState() {
+            return state;
+        }
+
+        /**
+         * @return the value of the given variable, which is a key of its map
+         */
+        public String getValue(int variable) {
+            return values[variable];
+        }
+
+        /**
+         * @return the index of the varbind that holds the given variable, or null if the variable is not a varbind
+         */
+        public Integer getVarbindIndex(int variable) {
+            return varbindIndexes.get(variable);
+        }
+
+        public int size() {
+            return values.length;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the definitions whose state was expanded into several events, how many were generated,
+ * and which definitions were skipped because they had more combinations than the cap.
+ *
+ * Safe to update from multiple threads.
+ */
+public class StateExpansionStats {
+    private final LongAdder definitions = new LongAdder();
+    private final LongAdder combinations = new LongAdder();
+    private final LongAdder generated = new LongAdder();
+    private final Queue<String> skipped = new ConcurrentLinkedQueue<>();
+    private final LongAccumulator largest = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param combinations the number of combinations of the definition's state, one event was generated for each
+     */
+    public void record(long combinations) {
+        recordDefinition(combinations);
+        generated.add(combinations);
+    }
+
+    /**
+     * @param definition the name of the definition that was skipped
+     * @param combinations the number of combinations of its state, more than the cap
+     */
+    public void recordSkipped(String definition, long combinations) {
+        recordDefinition(combinations);
+        skipped.add(definition);
+    }
+
+    private void recordDefinition(long combinations) {
+        definitions.increment();
+        this.combinations.add(combinations);
+        largest.accumulate(combinations);
+    }
+
+    public long getDefinitions() {
+        return definitions.sum();
+    }
+
+    public long getCombinations() {
+        return combinations.sum();
+    }
+
+    public long getGenerated() {
+        return generated.sum();
+    }
+
+    /**
+     * @return the names of the definitions that were skipped, because they had more combinations than the cap
+     */
+    public List<String> getSkipped() {
+        return new ArrayList<>(skipped);
+    }
+
+    /**
+     * @return the largest number of combinations of any single definition
+     */
+    public long getLargest() {
+        return largest.get();
+    }
+
+    public String getSummary() {
+        final List<String> skippedDefinitions = getSkipped();
+        final String summary = String.format("%d definitions with dynamic states: %d combinations, %d events generated, "
+                        + "at most %d combinations per definition. %d definitions over the cap were skipped",
+                getDefinitions(), getCombinations(), getGenerated(), getLargest(), skippedDefinitions.size());
+        return skippedDefinitions.isEmpty() ? summary + "." : summary + ": " + String.join(", ", skippedDefinitions) + ".";
+    }
+}
@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool used to share a single {@link String} instance between the many
+ * definitions that contain the same value.
+ *
+ * The pool is a fixed size table indexed by the hash of the value, where a new value
+ * replaces the one in its slot. Values can be looked up from a region of a
+ * {@link CharSequence}, so that no string is allocated when the value is already pooled.
+ *
+ * The pool is safe to use from multiple threads. Concurrent updates of the same slot
+ * may cause a value to be pooled twice, but never return the wrong value.
+ */
+public class StringPool {
+
+    /**
+     * Does not pool any values.
+     */
+    public static final StringPool DISABLED = new StringPool(0);
+
+    public static final int DEFAULT_CAPACITY = 16 * 1024;
+
+    // Approximate sizes on a 64-bit Java 8 VM with compressed oops, where a String
+    // is backed by a char[] of 2 bytes per char, and objects are aligned to 8 bytes
+    private static final int STRING_SIZE = 24;
+    private static final int CHAR_ARRAY_HEADER = 16;
+
+    private final String[] table;
+    private final int mask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+
+    public StringPool() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of slots, rounded up to a power of two
+     */
+    public StringPool(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        final int size = capacity == 0 ? 0 : Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        table = new String[size];
+        mask = size - 1;
+    }
+
+    public String intern(String s) {
+        if (s == null) {
+            return null;
+        }
+        return intern(s, 0, s.length());
+    }
+
+    /**
+     * @return the pooled string equal to the given region
+     */
+    public String intern(CharSequence seq, int start, int end) {
+        if (table.length == 0) {
+            return seq.subSequence(start, end).toString();
+        }
+
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + seq.charAt(i);
+        }
+        final int slot = (hash ^ (hash >>> 16)) & mask;
+
+        final String pooled = table[slot];
+        if (pooled != null && pooled.hashCode() == hash && regionEquals(pooled, seq, start, end)) {
+            hits.increment();
+            bytesSaved.add(estimateSize(pooled));
+            return pooled;
+        }
+
+        final String s = seq.subSequence(start, end).toString();
+        table[slot] = s;
+        misses.increment();
+        return s;
+    }
+
+    /**
+     * @return the approximate number of bytes used by the string and its backing array
+     */
+    static long estimateSize(String s) {
+        final long arraySize = CHAR_ARRAY_HEADER + 2L * s.length();
+        return STRING_SIZE + ((arraySize + 7) & ~7L);
+    }
+
+    private static boolean regionEquals(String s, CharSequence seq, int start, int end) {
+        if (s.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) != seq.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return an estimate of the heap that would have been used by the duplicate strings,
+     * see {@link #estimateSize(String)}
+     */
+    public long getBytesSaved() {
+        return bytesSaved.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d of %d values shared, about %d KB saved",
+                getHits(), getHits() + getMisses(), getBytesSaved() / 1024);
+    }
+}
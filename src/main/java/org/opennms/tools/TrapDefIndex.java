@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableListMultimap;
+
+/**
+ * Index over a set of parsed trap definitions.
+ *
+ * The index is built once and is read-only afterwards, so it can be shared between threads.
+ * When several definitions have the same enterprise, generic and specific numbers,
+ * the first one wins, as it does in Smarts.
+ */
+public class TrapDefIndex {
+    private final Map<TrapKey, SmartsTrapDef> defsByKey;
+    private final ImmutableListMultimap<String, SmartsTrapDef> defsByEventName;
+    private final ImmutableListMultimap<String, SmartsTrapDef> defsByClassName;
+
+    public TrapDefIndex(Iterable<SmartsTrapDef> defs) {
+        final Map<TrapKey, SmartsTrapDef> byKey = new HashMap<>();
+        final ImmutableListMultimap.Builder<String, SmartsTrapDef> byEventName = ImmutableListMultimap.builder();
+        final ImmutableListMultimap.Builder<String, SmartsTrapDef> byClassName = ImmutableListMultimap.builder();
+        for (SmartsTrapDef def : defs) {
+            byKey.putIfAbsent(TrapKey.of(def), def);
+            if (def.getEventName() != null) {
+                byEventName.put(def.getEventName(), def);
+            }
+            if (def.getClassName() != null) {
+                byClassName.put(def.getClassName(), def);
+            }
+        }
+        defsByKey = byKey;
+        defsByEventName = byEventName.build();
+        defsByClassName = byClassName.build();
+    }
+
+    /**
+     * @return the definition, or null if there is no such definition
+     */
+    public SmartsTrapDef get(String enterprise, String trapNumber, String specific) {
+        return defsByKey.get(new TrapKey(enterprise, trapNumber, specific));
+    }
+
+    /**
+     * @return the definitions with the given event name, in the order in which they were indexed
+     */
+    public List<SmartsTrapDef> getByEventName(String eventName) {
+        return defsByEventName.get(eventName);
+    }
+
+    /**
+     * @return the definitions with the given class name, in the order in which they were indexed
+     */
+    public List<SmartsTrapDef> getByClassName(String className) {
+        return defsByClassName.get(className);
+    }
+
+    public int size() {
+        return defsByKey.size();
+    }
+}
@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Identifies a trap definition by its enterprise, generic and specific numbers.
+ *
+ * When all three are numeric, they are also kept in packed form and compared as
+ * integers. Keys with wildcards are compared by their strings. Either way, two keys
+ * are equal only if their strings are equal.
+ */
+public final class TrapKey {
+    private final String enterprise;
+    private final String generic;
+    private final String specific;
+    private final int[] enterpriseOid;
+    private final int genericNumber;
+    private final int specificNumber;
+    private final int hashCode;
+
+    public TrapKey(String enterprise, String generic, String specific) {
+        this.enterprise = enterprise;
+        this.generic = generic;
+        this.specific = specific;
+
+        final int[] oid = parseOid(enterprise);
+        final int genericNumber = parseNumber(generic);
+        final int specificNumber = parseNumber(specific);
+        if (oid != null && genericNumber >= 0 && specificNumber >= 0) {
+            this.enterpriseOid = oid;
+            this.genericNumber = genericNumber;
+            this.specificNumber = specificNumber;
+            this.hashCode = 31 * (31 * Arrays.hashCode(oid) + genericNumber) + specificNumber;
+        } else {
+            this.enterpriseOid = null;
+            this.genericNumber = -1;
+            this.specificNumber = -1;
+            this.hashCode = Objects.hash(enterprise, generic, specific);
+        }
+    }
+
+    public static TrapKey of(SmartsTrapDef def) {
+        return def.getKey();
+    }
+
+    public String getEnterprise() {
+        return enterprise;
+    }
+
+    public String getGeneric() {
+        return generic;
+    }
+
+    public String getSpecific() {
+        return specific;
+    }
+
+    /**
+     * @return true if the enterprise, generic and specific numbers are all numeric
+     */
+    public boolean isNumeric() {
+        return enterpriseOid != null;
+    }
+
+    /**
+     * @return the arcs of the enterprise OID, or null if the key is not numeric
+     */
+    public int[] getEnterpriseOid() {
+        return enterpriseOid != null ? enterpriseOid.clone() : null;
+    }
+
+    /**
+     * @return the generic number, or -1 if the key is not numeric
+     */
+    public int getGenericNumber() {
+        return genericNumber;
+    }
+
+    /**
+     * @return the specific number, or -1 if the key is not numeric
+     */
+    public int getSpecificNumber() {
+        return specificNumber;
+    }
+
+    private static int[] parseOid(String oid) {
+        // Only OIDs with a leading dot are packed, so that ".1.3" and "1.3" remain different keys
+        if (oid == null || oid.isEmpty() || oid.charAt(0) != '.') {
+            return null;
+        }
+        final int start = 1;
+        int numArcs = 1;
+        for (int i = start; i < oid.length(); i++) {
+            if (oid.charAt(i) == '.') {
+                numArcs++;
+            }
+        }
+
+        final int[] arcs = new int[numArcs];
+        int arc = 0;
+        int from = start;
+        for (int i = start; i <= oid.length(); i++) {
+            if (i == oid.length() || oid.charAt(i) == '.') {
+                final int value = parseNumber(oid, from, i);
+                if (value < 0) {
+                    return null;
+                }
+                arcs[arc++] = value;
+                from = i + 1;
+            }
+        }
+        return arcs;
+    }
+
+    private static int parseNumber(String s) {
+        return s != null ? parseNumber(s, 0, s.length()) : -1;
+    }
+
+    /**
+     * @return the number, or -1 if the region is empty, not a canonical number or does not fit in an int
+     */
+    private static int parseNumber(String s, int start, int end) {
+        if (start >= end || (s.charAt(start) == '0' && end - start > 1)) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            final char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+            if (value > Integer.MAX_VALUE) {
+                return -1;
+            }
+        }
+        return (int)value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TrapKey that = (TrapKey) o;
+        if (hashCode != that.hashCode) {
+            return false;
+        }
+        if (enterpriseOid != null && that.enterpriseOid != null) {
+            return genericNumber == that.genericNumber &&
+                    specificNumber == that.specificNumber &&
+                    Arrays.equals(enterpriseOid, that.enterpriseOid);
+        }
+        return Objects.equals(enterprise, that.enterprise) &&
+                Objects.equals(generic, that.generic) &&
+                Objects.equals(specific, that.specific);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s/%s/%s", enterprise, generic, specific);
+    }
+}
@@ -34,6 +34,9 @@ import org.fusesource.jansi.AnsiConsole;
 import org.kohsuke.args4j.Option;
 import org.opennms.netmgt.xml.eventconf.AlarmData;
 import org.opennms.netmgt.xml.eventconf.Event;
+import org.opennms.tools.MatchResult;
+import org.opennms.tools.MatchStrategy;
+import org.opennms.tools.OpenNMSEvents;
 import org.opennms.tools.SmartsTools;
 import org.opennms.tools.SmartsTrapDef;
 import org.opennms.tools.smarts.config.SmartsToolsConfig;
@@ -66,10 +69,11 @@ public class AuditCommand implements Command {
         AnsiConsole.systemInstall();
 
         int missingEvents = 0;
-        final Map<SmartsTrapDef, List<Event>> defToEventMap = smartsTools.getDefinitionToEventMappings();
-        DEFS: for (Map.Entry<SmartsTrapDef, List<Event>> entry : defToEventMap.entrySet()) {
+        final OpenNMSEvents nmsEvents = smartsTools.getOpenNMSEvents();
+        final Map<SmartsTrapDef, MatchResult> defToEventMap = smartsTools.getDefinitionMatches(nmsEvents);
+        DEFS: for (Map.Entry<SmartsTrapDef, MatchResult> entry : defToEventMap.entrySet()) {
             final SmartsTrapDef def = entry.getKey();
-            final List<Event> events = entry.getValue();
+            final List<Event> events = entry.getValue().getEvents();
 
             if (events.isEmpty()) {
                 System.out.println( ansi().fg(RED).a(String.format("No matching event for %s", getDefinitionKey(def))).reset() );
@@ -86,19 +90,25 @@ public class AuditCommand implements Command {
         if (out != null) {
             doCsvOutput(defToEventMap);
         }
+
+        System.out.println("Matching strategies:");
+        System.out.print(nmsEvents.getMatcher().getStats().getSummary());
     }
 
-    private void doCsvOutput(final Map<SmartsTrapDef, List<Event>> defToEventMap) throws IOException {
+    private void doCsvOutput(final Map<SmartsTrapDef, MatchResult> defToEventMap) throws IOException {
         final CSVFormat format = CSVFormat.DEFAULT.withHeader(
                 "(S)Enterprise", "(S)Generic", "(S)Specific",
                 "(S)Name", "(S)ClassName", "(S)State", "(S)EventType", "(S)InstanceName",
                 "(O)UEI", "(O)Label",
                 "(O)Enterprise", "(O)Generic", "(O)Specific",
-                "(O)Alarm Type", "(O)Reduction Key", "(O)Clear Key");
+                "(O)Alarm Type", "(O)Reduction Key", "(O)Clear Key",
+                "Matched By");
         try(CSVPrinter printer = format.print(out, StandardCharsets.UTF_8)) {
-            for (Map.Entry<SmartsTrapDef, List<Event>> entry : defToEventMap.entrySet()) {
+            for (Map.Entry<SmartsTrapDef, MatchResult> entry : defToEventMap.entrySet()) {
                 final SmartsTrapDef def = entry.getKey();
-                final List<Event> events = entry.getValue();
+                final List<Event> events = entry.getValue().getEvents();
+                final MatchStrategy strategy = entry.getValue().getStrategy();
+                final String matchedBy = strategy != null ? strategy.name() : null;
 
                 // Smarts information
                 final String smartsEnterprise = def.getEnterprise();
@@ -125,7 +135,8 @@ public class AuditCommand implements Command {
                             name, className, state, eventType, instanceName,
                             eventUei, eventLabel,
                             enterpriseId, genericId, specificId,
-                            alarmType, reductionKey, clearKey);
+                            alarmType, reductionKey, clearKey,
+                            matchedBy);
                 }
                 for (Event event : events) {
                     String eventUei = null;
@@ -157,7 +168,8 @@ public class AuditCommand implements Command {
                             name, className, state, eventType, instanceName,
                             eventUei, eventLabel,
                             enterpriseId, genericId, specificId,
-                            alarmType, reductionKey, clearKey);
+                            alarmType, reductionKey, clearKey,
+                            matchedBy);
                 }
             }
         }
@@ -30,29 +30,31 @@ package org.opennms.tools.commands;
 
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
+import com.google.common.io.Closer;
 import org.kohsuke.args4j.Option;
-import org.opennms.core.xml.JaxbUtils;
 import org.opennms.features.mibcompiler.services.JsmiMibParser;
-import org.opennms.netmgt.config.DefaultEventConfDao;
 import org.opennms.netmgt.xml.eventconf.Event;
 import org.opennms.netmgt.xml.eventconf.Events;
+import org.opennms.tools.ConversionResult;
 import org.opennms.tools.Converter;
 import org.opennms.tools.DefAndEventMatcher;
+import org.opennms.tools.EventConfWriter;
+import org.opennms.tools.MatchResult;
 import org.opennms.tools.OpenNMSEvents;
 import org.opennms.tools.SmartsTools;
 import org.opennms.tools.SmartsTrapDef;
+import org.opennms.tools.StateExpansionStats;
 import org.opennms.tools.smarts.config.MibMappingConfig;
 import org.opennms.tools.smarts.config.SmartsToolsConfig;
 import org.opennms.tools.smarts.config.SmartsToolsConfigDao;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.io.FileSystemResource;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -64,6 +66,7 @@ import static org.opennms.tools.OpenNMSEvents.getFirstOrNull;
 
 public class GenerateCommand implements Command {
     private static final Logger LOG = LoggerFactory.getLogger(GenerateCommand.class);
+    private static final int CONVERSION_CHUNK_SIZE = 1000;
 
     @Option(name = "-c", usage = "yaml configuration", metaVar = "CONFIG")
     private File configFile = new File("smarts-tools.yaml");
@@ -71,13 +74,18 @@ public class GenerateCommand implements Command {
     private final JsmiMibParser mibParser = new JsmiMibParser();
     private SmartsToolsConfig config;
     private SmartsTools smartsTools;
-    private final Map<String, Events> generatedEventsByFile = new LinkedHashMap<>();
+    private final StateExpansionStats expansionStats = new StateExpansionStats();
+    private int numFailedDefinitions = 0;
 
     @Override
     public void execute() throws Exception {
         final SmartsToolsConfigDao configDao = new SmartsToolsConfigDao(configFile);
         config = configDao.getConfig();
         smartsTools = new SmartsTools(config);
+        if (config.getOutput().getMaxStateCombinations() <= 0) {
+            throw new IllegalArgumentException("output.max-state-combinations must be positive: "
+                    + config.getOutput().getMaxStateCombinations());
+        }
 
         // SMARTS Definitions
         final List<SmartsTrapDef> smartsTrapDefs = smartsTools.getSmartsTrapDefinitions();
@@ -101,54 +109,72 @@ public class GenerateCommand implements Command {
         final Set<SmartsTrapDef> defsWithoutMibs = new LinkedHashSet<>();
         defsWithoutMibs.addAll(defsWithoutEventConf);
 
-        // Attempt to enrich the definitions with MIB data
-        for (MibMappingConfig mappingConfig : config.getMibs().getMappings()) {
-            // Find the definitions that match
-            final Set<SmartsTrapDef> matchingDefs = getMatchingDefinitions(mappingConfig, defsWithoutEventConf);
-            if (matchingDefs.isEmpty()) {
-                continue;
+        // The files are only committed once all of them were generated, so that a failure
+        // never leaves some of them replaced and the others not
+        final List<EventConfWriter> writers = new ArrayList<>();
+        final Closer closer = Closer.create();
+        try {
+            // Attempt to enrich the definitions with MIB data
+            for (MibMappingConfig mappingConfig : config.getMibs().getMappings()) {
+                // Find the definitions that match
+                final Set<SmartsTrapDef> matchingDefs = getMatchingDefinitions(mappingConfig, defsWithoutEventConf);
+                if (matchingDefs.isEmpty()) {
+                    continue;
+                }
+                // Generate the events from the MIBs
+                final Events eventsFromMibs = generateEventsFromMibs(mappingConfig);
+                // Match the definitions with the events generated from the MIBs
+                // NOTE: This will throw an exception if one of the matched definitions cannot be matched
+                // with a generated event from the MIB
+                final Map<SmartsTrapDef, MatchResult> mibMatches = matchEventsFromMibs(matchingDefs, eventsFromMibs);
+                // Generate the events from the definitions and enrich those
+                // with the information from the MIBs
+                writers.add(writeEvents(closer, mappingConfig.getTarget(), writer ->
+                        generateEventsFromDefs(matchingDefs, mibMatches, mappingConfig.getUeiPrefix(), writer)));
+                defsWithoutMibs.removeAll(matchingDefs);
             }
-            // Generate the events from the MIBs
-            final Events eventsFromMibs = generateEventsFromMibs(mappingConfig);
-            // Generate the events from the definitions and enrich those
-            // with the information from the MIBs
-            // NOTE: This will throw an exception if one of the matched definitions cannot be matched
-            // with a generated event from the MIB
-            final Events eventsToSave = generateEventsFromDefs(matchingDefs, eventsFromMibs, mappingConfig.getUeiPrefix());
-            generatedEventsByFile.put(mappingConfig.getTarget(), eventsToSave);
-            defsWithoutMibs.removeAll(matchingDefs);
-        }
 
-        // Handle the events that were not enriched
-        final Events eventsFromDefs = generateEventsFromDefs(defsWithoutMibs);
-        generatedEventsByFile.put("Smarts.nomibs.events.xml", eventsFromDefs);
+            // Handle the events that were not enriched
+            writers.add(writeEvents(closer, "Smarts.nomibs.events.xml", writer -> generateEventsFromDefs(defsWithoutMibs, writer)));
 
-        // Enrich any existing event configuration that may not have alarm data
-        final Events existingEventsEnriched = enrichExistingEvents(defToEventConf);
-        generatedEventsByFile.put("Smarts.enriched.events.xml", existingEventsEnriched);
+            // Enrich any existing event configuration that may not have alarm data
+            writers.add(writeEvents(closer, "Smarts.enriched.events.xml", writer -> enrichExistingEvents(defToEventConf, writer)));
 
+            if (numFailedDefinitions > 0) {
+                throw new Exception(String.format("Failed to convert %d definitions, see the errors above. No events were written.",
+                        numFailedDefinitions));
+            }
+            for (EventConfWriter writer : writers) {
+                writer.commit();
+            }
+        } catch (Throwable t) {
+            throw closer.rethrow(t, Exception.class);
+        } finally {
+            closer.close();
+        }
 
-        // Save
-        for (Map.Entry<String, Events> entry : generatedEventsByFile.entrySet()) {
-            final String fileName = entry.getKey();
-            final Events events = entry.getValue();
-            final File eventsFile = Paths.get(config.getOutput().getEvents(), fileName).toFile();
-            LOG.info("Writing {} events to {}.", events.getEvents().size(), eventsFile);
-            JaxbUtils.marshal(events, eventsFile);
+        LOG.info("Matching strategies:\n{}", nmsEvents.getMatcher().getStats().getSummary());
+        if (expansionStats.getSkipped().isEmpty()) {
+            LOG.info("State expansion: {}", expansionStats.getSummary());
+        } else {
+            LOG.warn("State expansion: {}", expansionStats.getSummary());
         }
     }
 
-    private Events enrichExistingEvents(Map<SmartsTrapDef, List<Event>> defToEventConfs) {
-        final Events existingEventsEnriched = new Events();
-        final Converter c = new Converter();
-        for (SmartsTrapDef def : defToEventConfs.keySet()) {
+    private void enrichExistingEvents(Map<SmartsTrapDef, List<Event>> defToEventConfs, EventConfWriter existingEventsEnriched) throws IOException {
+        // Only the definitions with existing event conf need to be converted
+        final List<SmartsTrapDef> defsWithEventConf = defToEventConfs.entrySet().stream()
+                .filter(e -> !e.getValue().isEmpty())
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+        convertInChunks(newConverter(), defsWithEventConf, result -> {
+            final SmartsTrapDef def = result.getDefinition();
             final List<Event> existingEventConfs = defToEventConfs.get(def);
             final Event firstExistingEvent = Iterables.getFirst(existingEventConfs, null);
-            if (firstExistingEvent == null) {
-                // No existing event conf
-                continue;
+            final List<Event> generatedEventConfs = getConvertedEvents(result);
+            if (generatedEventConfs.isEmpty()) {
+                return;
             }
-            final List<Event> generatedEventConfs = c.convert(def);
             final Event firstGeneratedEvent = Iterables.getFirst(generatedEventConfs, null);
             if (generatedEventConfs.size() == 1 && existingEventConfs.size() >= 1) {
                 // Use data from the first existing event
@@ -160,7 +186,7 @@ public class GenerateCommand implements Command {
                 }
                 // There's a single event, so it must be of type 3
                 firstGeneratedEvent.getAlarmData().setAlarmType(3);
-                existingEventsEnriched.addEvent(firstGeneratedEvent);
+                existingEventsEnriched.write(firstGeneratedEvent);
             } else if (generatedEventConfs.size() == 2 && existingEventConfs.size() == 1) {
                 for (Event generatedEventConf : generatedEventConfs) {
                     generatedEventConf.setDescr(firstExistingEvent.getDescr());
@@ -168,18 +194,17 @@ public class GenerateCommand implements Command {
                     if (!firstExistingEvent.getVarbindsdecodes().isEmpty()) {
                         generatedEventConf.setVarbindsdecodes(firstExistingEvent.getVarbindsdecodes());
                     }
-                    existingEventsEnriched.addEvent(firstGeneratedEvent);
+                    existingEventsEnriched.write(firstGeneratedEvent);
                 }
             } else {
                 for (Event existingEventConf : existingEventConfs) {
                     // Use the generate log message and parameters
                     existingEventConf.setLogmsg(firstGeneratedEvent.getLogmsg());
                     existingEventConf.setParameters(firstGeneratedEvent.getParameters());
-                    existingEventsEnriched.addEvent(existingEventConf);
+                    existingEventsEnriched.write(existingEventConf);
                 }
             }
-        }
-        return existingEventsEnriched;
+        });
     }
 
     private Set<SmartsTrapDef> getMatchingDefinitions(MibMappingConfig mappingConfig, Set<SmartsTrapDef> defs) {
@@ -208,44 +233,86 @@ public class GenerateCommand implements Command {
                 .collect(Collectors.toCollection(LinkedHashSet::new));
     }
 
-    private Events generateEventsFromDefs(Set<SmartsTrapDef> defs, Events eventsFromMibs, String ueiPrefix) throws Exception {
-        DefaultEventConfDao eventConfDao = getDefaultEventConfDaoWithEvents(eventsFromMibs);
-        DefAndEventMatcher matcher = new DefAndEventMatcher(eventConfDao);
-        final Converter c = new Converter();
-        if (ueiPrefix != null) {
-            c.setUeiPrefix(ueiPrefix);
-        }
-
-        final  Events eventToSave = new Events();
+    private static Map<SmartsTrapDef, MatchResult> matchEventsFromMibs(Set<SmartsTrapDef> defs, Events eventsFromMibs) throws Exception {
+        // Index the generated events directly, they don't need to go through a DAO
+        DefAndEventMatcher matcher = new DefAndEventMatcher(eventsFromMibs);
+        final Map<SmartsTrapDef, MatchResult> matches = matcher.matchAll(defs);
         for (SmartsTrapDef def : defs) {
-            final List<Event> matchingEvents = matcher.getMatchingEvents(def);
-            final Event matchingEvent = Iterables.getFirst(matchingEvents, null);
-            if (matchingEvent == null) {
+            if (!matches.get(def).isMatched()) {
                 throw new Exception("No matching event definition found in MIB for: " + def);
             }
-            for (Event e : c.convert(def)) {
+        }
+        return matches;
+    }
+
+    private void generateEventsFromDefs(Set<SmartsTrapDef> defs, Map<SmartsTrapDef, MatchResult> mibMatches,
+                                        String ueiPrefix, EventConfWriter eventsToSave) throws IOException {
+        final Converter c = newConverter();
+        if (ueiPrefix != null) {
+            c.setUeiPrefix(ueiPrefix);
+        }
+        convertInChunks(c, defs, result -> {
+            final Event matchingEvent = mibMatches.get(result.getDefinition()).getEvents().get(0);
+            for (Event e : getConvertedEvents(result)) {
                 // Keep some stuff from the MIB compiled version:
                 e.setVarbindsdecodes(matchingEvent.getVarbindsdecodes());
                 e.setDescr(matchingEvent.getDescr());
                 e.setEventLabel(matchingEvent.getEventLabel());
-                eventToSave.addEvent(e);
+                eventsToSave.write(e);
+            }
+        });
+    }
+
+    private void generateEventsFromDefs(Set<SmartsTrapDef> defsWithoutMibs, EventConfWriter events) throws IOException {
+        convertInChunks(newConverter(), defsWithoutMibs, result -> events.writeAll(getConvertedEvents(result)));
+    }
+
+    /**
+     * Writes the events for the given file in the output folder as they are generated.
+     * The writer is registered with the closer, which discards the events unless the writer is committed.
+     */
+    private EventConfWriter writeEvents(Closer closer, String fileName, EventsGenerator generator) throws IOException {
+        final File eventsFile = Paths.get(config.getOutput().getEvents(), fileName).toFile();
+        LOG.info("Writing events to {}.", eventsFile);
+        final EventConfWriter writer = closer.register(new EventConfWriter(eventsFile));
+        generator.generate(writer);
+        writer.finish();
+        LOG.info("Wrote {} events to {}.", writer.getNumEvents(), eventsFile);
+        return writer;
+    }
+
+    /**
+     * Converts the definitions a chunk at a time, so that only the events of the current chunk
+     * are kept in memory while they are written. The converter is closed once all of the chunks are converted.
+     */
+    private static void convertInChunks(Converter c, Collection<SmartsTrapDef> defs, ResultHandler handler) throws IOException {
+        try (Converter converter = c) {
+            for (List<SmartsTrapDef> chunk : Iterables.partition(defs, CONVERSION_CHUNK_SIZE)) {
+                for (ConversionResult result : converter.convertAll(chunk)) {
+                    handler.handle(result);
+                }
             }
         }
-        return eventToSave;
     }
 
+    private Converter newConverter() {
+        final Converter c = new Converter();
+        c.setThreads(config.getOutput().getThreads());
+        c.setMaxStateCombinations(config.getOutput().getMaxStateCombinations());
+        c.setExpansionStats(expansionStats);
+        return c;
+    }
 
-    private Events generateEventsFromDefs(Set<SmartsTrapDef> defsWithoutMibs) {
-        Converter c = new Converter();
-        Events events = new Events();
-        defsWithoutMibs.stream()
-                .map(def -> c.convert(def))
-                .forEach(e -> {
-                    for (Event ee : e) {
-                        events.addEvent(ee);
-                    }
-                });
-        return events;
+    /**
+     * Definitions that fail to convert are logged and counted, so that all of the failures
+     * are reported before the command fails.
+     */
+    private List<Event> getConvertedEvents(ConversionResult result) {
+        if (!result.isSuccessful()) {
+            LOG.error("Failed to convert {}.", result.getDefinition(), result.getError());
+            numFailedDefinitions++;
+        }
+        return result.getEvents();
     }
 
 
@@ -273,15 +340,13 @@ public class GenerateCommand implements Command {
         return eventsFromMibs;
     }
 
-    private static DefaultEventConfDao getDefaultEventConfDaoWithEvents(Events events) throws IOException {
-        final File eventconf = Files.createTempFile("events", ".xml").toFile();
-        eventconf.deleteOnExit();
-        JaxbUtils.marshal(events, eventconf);
-
-        final DefaultEventConfDao eventConfDao = new DefaultEventConfDao();
-        eventConfDao.setConfigResource(new FileSystemResource(eventconf));
-        eventConfDao.afterPropertiesSet();
+    @FunctionalInterface
+    private interface EventsGenerator {
+        void generate(EventConfWriter writer) throws IOException;
+    }
 
-        return eventConfDao;
+    @FunctionalInterface
+    private interface ResultHandler {
+        void handle(ConversionResult result) throws IOException;
     }
 }
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools.commands;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.fusesource.jansi.AnsiConsole;
+import org.kohsuke.args4j.Option;
+import org.opennms.netmgt.xml.eventconf.Event;
+import org.opennms.tools.MappedEventIndex;
+import org.opennms.tools.MatchResult;
+import org.opennms.tools.OpenNMSEvents;
+import org.opennms.tools.SmartsTools;
+import org.opennms.tools.SmartsTrapDef;
+import org.opennms.tools.smarts.config.SmartsToolsConfig;
+import org.opennms.tools.smarts.config.SmartsToolsConfigDao;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.fusesource.jansi.Ansi.Color.GREEN;
+import static org.fusesource.jansi.Ansi.Color.RED;
+import static org.fusesource.jansi.Ansi.ansi;
+import static org.opennms.tools.OpenNMSEvents.getFirstOrNull;
+
+/**
+ * Reverse audit: lists the OpenNMS events that none of the Smarts trap definitions map to.
+ */
+public class UnmappedCommand implements Command {
+    @Option(name = "-c", usage = "yaml configuration", metaVar = "CONFIG")
+    private File configFile = new File("smarts-tools.yaml");
+
+    @Option(name = "-o", usage = "csv output", metaVar = "OUTPUT")
+    private File out;
+
+    @Option(name = "-u", usage = "only include events with the given UEI prefix, can be repeated", metaVar = "UEI_PREFIX")
+    private List<String> ueiPrefixes = new ArrayList<>();
+
+    @Option(name = "-f", usage = "only include events from the given event file, can be repeated", metaVar = "FILE")
+    private List<String> files = new ArrayList<>();
+
+    @Override
+    public void execute() throws Exception {
+        final SmartsToolsConfigDao configDao = new SmartsToolsConfigDao(configFile);
+        final SmartsToolsConfig config = configDao.getConfig();
+        final SmartsTools smartsTools = new SmartsTools(config);
+
+        AnsiConsole.systemInstall();
+
+        final OpenNMSEvents nmsEvents = smartsTools.getOpenNMSEvents();
+        final Map<SmartsTrapDef, MatchResult> defToEventMap = smartsTools.getDefinitionMatches(nmsEvents);
+        final MappedEventIndex index = new MappedEventIndex(nmsEvents.getMatcher(), defToEventMap);
+        final Map<String, List<Event>> unmappedEvents = index.getUnmappedEvents(nmsEvents.getEventsByFile(), ueiPrefixes, files);
+
+        int numUnmappedEvents = 0;
+        for (Map.Entry<String, List<Event>> entry : unmappedEvents.entrySet()) {
+            System.out.println(String.format("%s:", entry.getKey()));
+            for (Event event : entry.getValue()) {
+                System.out.println( ansi().fg(RED).a(String.format("  No matching definition for %s", event.getUei())).reset() );
+            }
+            numUnmappedEvents += entry.getValue().size();
+        }
+
+        if (numUnmappedEvents > 0) {
+            System.out.println( ansi().fg(RED).a(String.format("%s unmapped events in %s files.", numUnmappedEvents, unmappedEvents.size())).reset() );
+        } else {
+            System.out.println( ansi().fg(GREEN).a("No unmapped events.").reset() );
+        }
+
+        if (out != null) {
+            doCsvOutput(unmappedEvents);
+        }
+    }
+
+    private void doCsvOutput(final Map<String, List<Event>> unmappedEvents) throws IOException {
+        final CSVFormat format = CSVFormat.DEFAULT.withHeader(
+                "(O)File", "(O)UEI", "(O)Label",
+                "(O)Enterprise", "(O)Generic", "(O)Specific");
+        try(CSVPrinter printer = format.print(out, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, List<Event>> entry : unmappedEvents.entrySet()) {
+                for (Event event : entry.getValue()) {
+                    printer.printRecord(entry.getKey(), event.getUei(), event.getEventLabel(),
+                            getFirstOrNull(event, "id"), getFirstOrNull(event, "generic"), getFirstOrNull(event, "specific"));
+                }
+            }
+        }
+    }
+}
@@ -30,6 +30,7 @@ package org.opennms.tools.smarts.config;
 
 public class OpenNMSConfig {
     private String events;
+    private int threads = 1;
 
     public String getEvents() {
         return events;
@@ -38,4 +39,12 @@ public class OpenNMSConfig {
     public void setEvents(String events) {
         this.events = events;
     }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
 }
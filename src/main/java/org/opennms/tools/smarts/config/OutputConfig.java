@@ -28,8 +28,13 @@
 
 package org.opennms.tools.smarts.config;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+
 public class OutputConfig {
     private String events;
+    private int threads = 1;
+    @JsonProperty("max-state-combinations")
+    private int maxStateCombinations = 1000;
 
     public String getEvents() {
         return events;
@@ -38,4 +43,20 @@ public class OutputConfig {
     public void setEvents(String events) {
         this.events = events;
     }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getMaxStateCombinations() {
+        return maxStateCombinations;
+    }
+
+    public void setMaxStateCombinations(int maxStateCombinations) {
+        this.maxStateCombinations = maxStateCombinations;
+    }
 }
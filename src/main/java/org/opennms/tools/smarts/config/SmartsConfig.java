@@ -34,6 +34,7 @@ import java.util.List;
 public class SmartsConfig {
     private String traps;
     private List<SmartsExcludeConfig> excludes = new ArrayList<>();
+    private int threads = 1;
 
     public String getTraps() {
         return traps;
@@ -50,4 +51,12 @@ public class SmartsConfig {
     public void setExcludes(List<SmartsExcludeConfig> excludes) {
         this.excludes = excludes;
     }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
 }
@@ -33,6 +33,7 @@ public class SmartsToolsConfig {
     private OpenNMSConfig opennms;
     private OutputConfig output;
     private MibsConfig mibs;
+    private CacheConfig cache;
 
     public SmartsConfig getSmarts() {
         return smarts;
@@ -65,4 +66,12 @@ public class SmartsToolsConfig {
     public void setMibs(MibsConfig mibs) {
         this.mibs = mibs;
     }
+
+    public CacheConfig getCache() {
+        return cache;
+    }
+
+    public void setCache(CacheConfig cache) {
+        this.cache = cache;
+    }
 }
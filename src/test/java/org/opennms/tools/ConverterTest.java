@@ -37,15 +37,21 @@ import org.opennms.netmgt.xml.eventconf.Parameter;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 
 public class ConverterTest {
 
@@ -141,6 +147,89 @@ public class ConverterTest {
         assertThat(clearEvent.getVarbindsdecodes().get(0).getDecodes().get(0).getVarbinddecodedstring(), is("CLEAR"));
         assertThat(clearEvent.getVarbindsdecodes().get(0).getDecodes().get(1).getVarbindvalue(), is("1"));
         assertThat(clearEvent.getVarbindsdecodes().get(0).getDecodes().get(1).getVarbinddecodedstring(), is("NOTIFY"));
+
+        // The parts that are the same for both events are shared
+        assertThat(clearEvent.getVarbindsdecodes().get(0), sameInstance(problemEvent.getVarbindsdecodes().get(0)));
+        assertThat(clearEvent.getMask().getMaskelements().get(0), sameInstance(problemEvent.getMask().getMaskelements().get(0)));
+        assertThat(clearEvent.getMask().getVarbinds(), hasSize(1));
+        assertThat(problemEvent.getMask().getVarbinds(), hasSize(1));
+    }
+
+    @Test
+    public void canConvertAllDefsInParallel() throws IOException {
+        final SmartsTrapDef problemDef = smartsTrapParser.getTrapDefinition(".1.3.6.1.4.1.5528.100.10.2.3", "6", "3");
+        final SmartsTrapDef brokenDef = new SmartsTrapDef();
+        brokenDef.setEnterprise(".1.3.6.1.4.1.5528");
+        brokenDef.setTrapNumber("6");
+        brokenDef.setSpecific("1");
+        brokenDef.setEventName("Broken");
+        // There is no map for the variable
+        brokenDef.setState("$V1$");
+        final SmartsTrapDef multiEventDef = smartsTrapParser.getTrapDefinition(".1.3.6.1.4.1.12148.9.8", "6", "7");
+
+        final List<ConversionResult> results;
+        try (Converter converter = new Converter()) {
+            converter.setThreads(4);
+            results = converter.convertAll(Arrays.asList(problemDef, brokenDef, multiEventDef));
+            // The converter can be reused until it is closed
+            assertThat(converter.convertAll(Arrays.asList(problemDef, multiEventDef)), hasSize(2));
+        }
+
+        assertThat(results, hasSize(3));
+        assertThat(results.get(0).getDefinition(), is(problemDef));
+        assertThat(results.get(0).getEvents(), hasSize(1));
+        assertThat(results.get(1).isSuccessful(), is(false));
+        assertThat(results.get(1).getError(), instanceOf(IllegalStateException.class));
+        assertThat(results.get(1).getEvents(), hasSize(0));
+        assertThat(results.get(2).getEvents(), hasSize(2));
+    }
+
+    @Test
+    public void canExpandStatesWithMultipleVariables() {
+        final SmartsTrapDef def = new SmartsTrapDef();
+        def.setEnterprise(".1.3.6.1.4.1.5528");
+        def.setTrapNumber("6");
+        def.setSpecific("1");
+        def.setEventName("Multi");
+        def.setState("$V1$$V3$");
+        final Map<String, Map<String, String>> map = new LinkedHashMap<>();
+        final Map<String, String> v1 = new LinkedHashMap<>();
+        v1.put("1", "NOTIFY");
+        v1.put("2", "CLEAR");
+        map.put("V1", v1);
+        final Map<String, String> v3 = new LinkedHashMap<>();
+        v3.put("up", "");
+        v3.put("down", "");
+        map.put("V3", v3);
+        def.setMap(map);
+
+        final Converter converter = new Converter();
+        final List<Event> events = converter.convert(def);
+        assertThat(events, hasSize(4));
+        assertThat(events.get(0).getUei(), is("uei.opennms.org/smarts/Multi"));
+        assertThat(events.get(0).getMask().getVarbinds(), hasSize(2));
+        assertThat(events.get(0).getMask().getVarbinds().get(0).getVbnumber(), is(1));
+        assertThat(events.get(0).getMask().getVarbinds().get(0).getVbvalues(), contains("1"));
+        assertThat(events.get(0).getMask().getVarbinds().get(1).getVbnumber(), is(3));
+        assertThat(events.get(0).getMask().getVarbinds().get(1).getVbvalues(), contains("up"));
+        assertThat(events.get(1).getMask().getVarbinds().get(1).getVbvalues(), contains("down"));
+        assertThat(events.get(3).getUei(), is("uei.opennms.org/smarts/MultiResolved"));
+        assertThat(events.get(3).getMask().getVarbinds().get(0).getVbvalues(), contains("2"));
+        assertThat(events.get(3).getMask().getVarbinds().get(1).getVbvalues(), contains("down"));
+
+        // Definitions over the cap are skipped, rather than losing some of their states
+        converter.setMaxStateCombinations(3);
+        final ConversionResult capped = converter.convertAll(Collections.singletonList(def)).get(0);
+        assertThat(capped.isSuccessful(), is(true));
+        assertThat(capped.getEvents(), hasSize(0));
+        assertThat(converter.getExpansionStats().getDefinitions(), is(2L));
+        assertThat(converter.getExpansionStats().getGenerated(), is(4L));
+        assertThat(converter.getExpansionStats().getSkipped(), contains("Multi"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void canOnlyCapWithPositiveNumbers() {
+        new Converter().setMaxStateCombinations(0);
     }
 
     @Test
@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.tools;
+
+import com.google.common.base.Strings;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.config.DefaultEventConfDao;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.eventconf.Event;
+import org.opennms.netmgt.xml.eventconf.Mask;
+import org.opennms.netmgt.xml.eventconf.Maskelement;
+import org.springframework.core.io.FileSystemResource;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertEquals;
+import static org.opennms.tools.SmartsOidUtils.getMatchingOid;
+
+public class DefAndEventMatcherTest {
+
+    private SmartsTrapParser smartsTrapParser;
+    private File eventconf;
+    private DefAndEventMatcher matcher;
+
+    @Before
+    public void setUp() {
+        ClassLoader classLoader = getClass().getClassLoader();
+        File smarts = new File(classLoader.getResource("smarts_trap_defs").getFile());
+        smartsTrapParser = new SmartsTrapParser(smarts);
+        eventconf = new File(classLoader.getResource("eventconf.xml").getFile());
+        matcher = new OpenNMSEvents(eventconf).getMatcher();
+    }
+
+    @Test
+    public void canMatchExactEnterprise() {
+        final MatchResult result = matcher.match(def(".1.3.6.1.4.1.9.9.43.2", "6", "1"));
+
+        assertThat(result.getStrategy(), is(MatchStrategy.EXACT));
+        assertThat(getUeis(result), contains("uei.opennms.org/vendor/Cisco/traps/ciscoConfigManEvent"));
+    }
+
+    @Test
+    public void canMatchFormattedEnterprise() throws IOException {
+        // The events we generate for definitions with wildcards use the formatted enterprise
+        final SmartsTrapDef def = smartsTrapParser.getTrapDefinition(".1.3.6.1.4.1.5528.100.10.2.3", "6", "3");
+        def.setEnterprise(".1.3.6.1.4.1.5528.100.10.2.3.*");
+        final List<Event> events = new Converter().convert(def);
+
+        final MatchResult result = new DefAndEventMatcher(events).match(def);
+
+        assertThat(result.getStrategy(), is(MatchStrategy.FORMATTED_ENTERPRISE));
+        assertThat(getUeis(result), contains("uei.opennms.org/smarts/DewpointTooLow"));
+    }
+
+    @Test
+    public void canMatchEnterpriseWithUnsupportedWildcardsExactly() throws IOException {
+        // Enterprises with "any" cannot be looked up by prefix, but still match the events we generated for them
+        final SmartsTrapDef def = smartsTrapParser.getTrapDefinition(".1.3.6.1.4.1.5528.100.10.2.3", "6", "3");
+        def.setEnterprise(".1.3.6.1.4.1.5528.any.10.2.3");
+        final SmartsTrapDef other = def(".1.3.6.1.4.1.5528.any.10.2.3", "6", "4");
+        final DefAndEventMatcher matcher = new DefAndEventMatcher(new Converter().convert(def));
+
+        final Map<SmartsTrapDef, MatchResult> results = matcher.matchAll(Arrays.asList(def, other));
+
+        assertThat(results.get(def).getStrategy(), is(MatchStrategy.EXACT));
+        assertThat(getUeis(results.get(def)), contains("uei.opennms.org/smarts/DewpointTooLow"));
+        // The definitions without an exact match are left unmatched, instead of failing the whole batch
+        assertThat(results.get(other).isMatched(), is(false));
+        assertThat(DefAndEventMatcher.getEffectiveEnterprise(other), nullValue());
+    }
+
+    @Test
+    public void canMatchEnterpriseWithoutTrailingZero() {
+        final MatchResult result = matcher.match(def(".1.3.6.1.4.1.9.9.43.2.*", "6", "1"));
+
+        assertThat(result.getStrategy(), is(MatchStrategy.PREFIX_WITHOUT_TRAILING_ZERO));
+        assertThat(getUeis(result), contains("uei.opennms.org/vendor/Cisco/traps/ciscoConfigManEvent"));
+    }
+
+    @Test
+    public void canMatchEnterpriseWithTrailingZero() {
+        // Without the trailing ".0", only the Cisco EnterpriseDefault event matches
+        final MatchResult result = matcher.match(def(".1.3.6.1.4.1.9.9.233.*", "6", "1"));
+
+        assertThat(result.getStrategy(), is(MatchStrategy.PREFIX));
+        assertThat(getUeis(result), contains("uei.opennms.org/vendor/Cisco/traps/cItpSccpGttMapStateChange"));
+    }
+
+    @Test
+    public void doesNotMatchEnterpriseDefault() {
+        final MatchResult result = matcher.match(def(".1.3.6.1.4.1.9.9.999", "6", "1"));
+
+        assertThat(result.isMatched(), is(false));
+        assertThat(result.getEvents(), hasSize(0));
+        // Nor the generic EnterpriseDefault event
+        assertThat(matcher.match(def(".1.3.6.1.2.1.10.32", "6", "1")).isMatched(), is(false));
+    }
+
+    @Test
+    public void canMatchRegexIds() {
+        final Event ciscoDefault = event("uei.opennms.org/vendor/Cisco/traps/EnterpriseDefault", ".1.3.6.1.4.1.9.%", "6", null);
+        final Event regex = event("uei.opennms.org/vendor/Cisco/traps/ciscoConfigManEvent", "~^\\.1\\.3\\.6\\.1\\.4\\.1\\.9\\.9\\.4[0-9]\\.2$", "6", "1");
+        final DefAndEventMatcher matcher = new DefAndEventMatcher(Arrays.asList(regex, ciscoDefault));
+
+        assertThat(getUeis(matcher.match(def(".1.3.6.1.4.1.9.9.43.2.*", "6", "1"))), contains(regex.getUei()));
+        // The regular expression must match the whole enterprise
+        assertThat(matcher.match(def(".1.3.6.1.4.1.9.9.43.2.1.*", "6", "1")).isMatched(), is(false));
+        assertThat(matcher.findCandidates(def(".1.3.6.1.4.1.9.9.53.2.*", "6", "1")), contains(ciscoDefault));
+    }
+
+    @Test
+    public void canMatchRegexGenericAndSpecific() {
+        final Event ciscoDefault = event("uei.opennms.org/vendor/Cisco/traps/EnterpriseDefault", ".1.3.6.1.4.1.9.%", "6", null);
+        final Event regex = event("uei.opennms.org/vendor/Cisco/traps/ciscoLink", ".1.3.6.1.4.1.9.%", "~[23]", "~^1[0-9]?$");
+        final DefAndEventMatcher matcher = new DefAndEventMatcher(Arrays.asList(regex, ciscoDefault));
+
+        assertThat(getUeis(matcher.match(def(".1.3.6.1.4.1.9.*", "2", "12"))), contains(regex.getUei()));
+        assertThat(getUeis(matcher.match(def(".1.3.6.1.4.1.9.*", "3", "1"))), contains(regex.getUei()));
+        assertThat(matcher.match(def(".1.3.6.1.4.1.9.*", "2", "21")).isMatched(), is(false));
+        assertThat(matcher.match(def(".1.3.6.1.4.1.9.*", "6", "1")).isMatched(), is(false));
+    }
+
+    @Test
+    public void canMatchAllDefinitionsAtOnce() throws IOException {
+        final List<SmartsTrapDef> defs = new ArrayList<>(smartsTrapParser.getTrapDefinitions());
+        defs.add(def(".1.3.6.1.4.1.9.9.43.2", "6", "1"));
+        defs.add(def(".1.3.6.1.4.1.9.9.43", "2", "0"));
+        defs.add(def(".1.3.6.1.4.1.9.9.43.2.*", "6", "1"));
+        defs.add(def(".1.3.6.1.4.1.9.9.233.*", "6", "1"));
+        defs.add(def("*", "2", "*"));
+
+        final Map<SmartsTrapDef, MatchResult> results = matcher.matchAll(defs);
+
+        assertEquals(defs, new ArrayList<>(results.keySet()));
+        for (SmartsTrapDef def : defs) {
+            final MatchResult result = matcher.match(def);
+            assertEquals(def.toString(), result.getStrategy(), results.get(def).getStrategy());
+            assertEquals(def.toString(), result.getEvents(), results.get(def).getEvents());
+        }
+    }
+
+    @Test
+    public void canMatchGenericTrapsWithoutAnEnterprise() {
+        final MatchResult result = matcher.match(def("*", "2", "*"));
+
+        assertThat(result.getEvents(), hasSize(1));
+        assertThat(result.getEvents().get(0).getUei(), is("uei.opennms.org/generic/traps/SNMP_Link_Down"));
+    }
+
+    @Test
+    public void matchesTheSameEventsAsOpenNMS() throws IOException {
+        final DefaultEventConfDao eventConfDao = new DefaultEventConfDao();
+        eventConfDao.setConfigResource(new FileSystemResource(eventconf));
+        eventConfDao.afterPropertiesSet();
+
+        final List<SmartsTrapDef> defs = new ArrayList<>(smartsTrapParser.getTrapDefinitions());
+        defs.add(def("*", "2", "*"));
+        defs.add(def("*", "6", "1"));
+        defs.add(def(".1.3.6.1.4.1.9.9.43", "2", "0"));
+        defs.add(def(".1.3.6.1.4.1.9.9.43.2.*", "6", "1"));
+        defs.add(def(".1.3.6.1.4.1.9.9.999", "6", "1"));
+        for (SmartsTrapDef def : defs) {
+            final MatchResult result = matcher.match(def);
+            if (result.getStrategy() == MatchStrategy.EXACT || result.getStrategy() == MatchStrategy.FORMATTED_ENTERPRISE) {
+                continue;
+            }
+            assertEquals(def.toString(), findByEvent(eventConfDao, def), result.getEvents());
+        }
+    }
+
+    private static List<String> getUeis(MatchResult result) {
+        return result.getEvents().stream().map(Event::getUei).collect(Collectors.toList());
+    }
+
+    private static SmartsTrapDef def(String enterprise, String trapNumber, String specific) {
+        final SmartsTrapDef def = new SmartsTrapDef();
+        def.setEnterprise(enterprise);
+        def.setTrapNumber(trapNumber);
+        def.setSpecific(specific);
+        return def;
+    }
+
+    private static Event event(String uei, String id, String generic, String specific) {
+        final Mask mask = new Mask();
+        addMaskElement(mask, "id", id);
+        addMaskElement(mask, "generic", generic);
+        addMaskElement(mask, "specific", specific);
+        final Event event = new Event();
+        event.setUei(uei);
+        event.setMask(mask);
+        return event;
+    }
+
+    private static void addMaskElement(Mask mask, String name, String value) {
+        if (value != null) {
+            final Maskelement maskElement = new Maskelement();
+            maskElement.setMename(name);
+            maskElement.getMevalues().add(value);
+            mask.addMaskelement(maskElement);
+        }
+    }
+
+    /**
+     * Asks OpenNMS for the event matching a trap generated from the definition, with and without the trailing ".0".
+     */
+    private static List<Event> findByEvent(DefaultEventConfDao eventConfDao, SmartsTrapDef def) {
+        for (boolean removeTrailingZero : new boolean[]{true, false}) {
+            final Event eventConf = eventConfDao.findByEvent(generateEvent(def, removeTrailingZero));
+            if (eventConf != null && !eventConf.getUei().endsWith("EnterpriseDefault")) {
+                return Collections.singletonList(eventConf);
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    private static org.opennms.netmgt.xml.event.Event generateEvent(SmartsTrapDef def, boolean removeTrailingZero) {
+        final EventBuilder eventBuilder = new EventBuilder(null, "test");
+        final String enterprise = getMatchingOid(def.getEnterprise());
+        if (!Strings.isNullOrEmpty(enterprise)) {
+            final String id = enterprise.startsWith(".") ? enterprise : "." + enterprise;
+            eventBuilder.setEnterpriseId(removeTrailingZero && id.endsWith(".0") ? id.substring(0, id.length() - 2) : id);
+        }
+        final String trapNumber = getMatchingOid(def.getTrapNumber());
+        if (!Strings.isNullOrEmpty(trapNumber)) {
+            eventBuilder.setGeneric(Integer.parseInt(trapNumber));
+        }
+        final String specific = getMatchingOid(def.getSpecific());
+        if (!Strings.isNullOrEmpty(specific)) {
+            eventBuilder.setSpecific(Integer.parseInt(specific));
+        }
+        return eventBuilder.getEvent();
+    }
+}
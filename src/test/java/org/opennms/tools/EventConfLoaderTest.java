@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.config.DefaultEventConfDao;
+import org.opennms.netmgt.xml.eventconf.Event;
+import org.springframework.core.io.FileSystemResource;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.assertEquals;
+
+public class EventConfLoaderTest {
+
+    private File eventconf;
+
+    @Before
+    public void setUp() {
+        ClassLoader classLoader = getClass().getClassLoader();
+        eventconf = new File(classLoader.getResource("eventconf.xml").getFile());
+    }
+
+    @Test
+    public void canLoadEventsInDeclaredOrder() throws IOException {
+        final DefaultEventConfDao eventConfDao = new DefaultEventConfDao();
+        eventConfDao.setConfigResource(new FileSystemResource(eventconf));
+        eventConfDao.afterPropertiesSet();
+        final List<String> expectedUeis = getUeis(eventConfDao.getAllEvents());
+
+        final EventConfLoader loader = new EventConfLoader();
+        final List<String> ueis = getUeis(loader.load(eventconf));
+        loader.setThreads(4);
+        final List<String> parallelUeis = getUeis(loader.load(eventconf));
+
+        assertThat(ueis, hasSize(463));
+        assertEquals(expectedUeis, ueis);
+        assertEquals(expectedUeis, parallelUeis);
+    }
+
+    @Test
+    public void canResolveIncludesLikeOpenNMS() throws IOException {
+        final File defaultEvents = new File(eventconf.getParentFile(), "events/default.events.xml");
+
+        assertEquals(defaultEvents.getCanonicalFile(), EventConfLoader.resolve(eventconf, "events/default.events.xml").getCanonicalFile());
+        assertEquals(defaultEvents.getCanonicalFile(), EventConfLoader.resolve(eventconf, "classpath:events/default.events.xml").getCanonicalFile());
+    }
+
+    @Test(expected = IOException.class)
+    public void failsToResolveMissingClasspathIncludes() throws IOException {
+        EventConfLoader.resolve(eventconf, "classpath:events/missing.events.xml");
+    }
+
+    private static List<String> getUeis(List<Event> events) {
+        return events.stream().map(Event::getUei).collect(Collectors.toList());
+    }
+}
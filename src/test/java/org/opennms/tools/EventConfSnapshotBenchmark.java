@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+
+/**
+ * Compares loading the eventconf test resource and its includes from their snapshots
+ * against unmarshalling them, to check that the snapshots are actually worth keeping.
+ *
+ * Run with:
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.opennms.tools.EventConfSnapshotBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EventConfSnapshotBenchmark {
+    private File eventconf;
+    private File cacheDir;
+    private EventConfLoader unmarshallingLoader;
+    private EventConfLoader snapshotLoader;
+
+    @Setup
+    public void setUp() throws IOException {
+        eventconf = new File(getClass().getClassLoader().getResource("eventconf.xml").getFile());
+        cacheDir = Files.createTempDirectory("snapshots").toFile();
+
+        unmarshallingLoader = new EventConfLoader();
+        snapshotLoader = new EventConfLoader();
+        snapshotLoader.setSnapshotCache(new EventConfSnapshotCache(cacheDir));
+        // Take the snapshots, so that the benchmark only reads them
+        snapshotLoader.loadByFile(eventconf);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        MoreFiles.deleteRecursively(cacheDir.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+
+    @Benchmark
+    public Object unmarshal() throws IOException {
+        return unmarshallingLoader.loadByFile(eventconf);
+    }
+
+    @Benchmark
+    public Object snapshot() throws IOException {
+        return snapshotLoader.loadByFile(eventconf);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(EventConfSnapshotBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+import com.google.common.primitives.Bytes;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.netmgt.xml.eventconf.Event;
+import org.opennms.netmgt.xml.eventconf.Events;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class EventConfSnapshotCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private EventConfSnapshotCache cache;
+    private File eventFile;
+
+    @Before
+    public void setUp() throws IOException {
+        cache = new EventConfSnapshotCache(temporaryFolder.newFolder("cache"));
+        eventFile = temporaryFolder.newFile("test.events.xml");
+        Files.write(eventFile.toPath(), "<events/>".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void canSnapshotEvents() throws IOException {
+        assertThat(cache.get(eventFile, cache.fingerprint(eventFile)), nullValue());
+
+        cache.put(eventFile, cache.fingerprint(eventFile), getEvents());
+
+        final Events snapshot = cache.get(eventFile, cache.fingerprint(eventFile));
+        assertThat(snapshot.getEvents(), hasSize(1));
+        assertThat(snapshot.getEvents().get(0).getUei(), is("uei.opennms.org/test"));
+
+        // The snapshot is no longer used once the file changes
+        Files.write(eventFile.toPath(), "<events></events>".getBytes(StandardCharsets.UTF_8));
+        assertThat(cache.get(eventFile, cache.fingerprint(eventFile)), nullValue());
+    }
+
+    @Test
+    public void doesNotUseSnapshotsOfFilesThatChangedWhileLoading() throws IOException {
+        final EventConfSnapshotCache.Fingerprint fingerprint = cache.fingerprint(eventFile);
+        Files.write(eventFile.toPath(), "<events></events>".getBytes(StandardCharsets.UTF_8));
+        cache.put(eventFile, fingerprint, getEvents());
+
+        assertThat(cache.get(eventFile, cache.fingerprint(eventFile)), nullValue());
+    }
+
+    @Test
+    public void doesNotDeserializeOtherClasses() throws IOException {
+        final EventConfSnapshotCache.Fingerprint fingerprint = cache.fingerprint(eventFile);
+        cache.put(eventFile, fingerprint, getEvents());
+
+        // Replace the serialized events with another object, keeping the valid header
+        final File snapshotFile = cache.getSnapshotFile(eventFile);
+        final byte[] snapshot = Files.readAllBytes(snapshotFile.toPath());
+        final int start = Bytes.indexOf(snapshot, new byte[]{(byte) 0xAC, (byte) 0xED, 0x00, 0x05});
+        final ByteArrayOutputStream tampered = new ByteArrayOutputStream();
+        tampered.write(snapshot, 0, start);
+        try (ObjectOutputStream out = new ObjectOutputStream(tampered)) {
+            out.writeObject(new Payload());
+        }
+        Files.write(snapshotFile.toPath(), tampered.toByteArray());
+
+        assertThat(cache.get(eventFile, fingerprint), nullValue());
+        assertThat(Payload.deserialized, is(false));
+    }
+
+    private static class Payload implements Serializable {
+        private static boolean deserialized = false;
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            deserialized = true;
+        }
+    }
+
+    private static Events getEvents() {
+        final Events events = new Events();
+        final Event event = new Event();
+        event.setUei("uei.opennms.org/test");
+        events.addEvent(event);
+        return events;
+    }
+}
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.netmgt.xml.eventconf.Event;
+import org.opennms.netmgt.xml.eventconf.Events;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+
+public class EventConfWriterTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void canWriteEventsOneAtATime() throws IOException {
+        final File eventFile = temporaryFolder.newFile("test.events.xml");
+        try (EventConfWriter writer = new EventConfWriter(eventFile)) {
+            for (int i = 0; i < 3; i++) {
+                final Event event = new Event();
+                event.setUei("uei.opennms.org/test/" + i);
+                event.setEventLabel("Test " + i);
+                writer.write(event);
+            }
+            assertThat(writer.getNumEvents(), is(3));
+            writer.commit();
+        }
+
+        final Events events = new EventConfLoader().unmarshal(eventFile);
+        assertThat(events.getEvents(), hasSize(3));
+        assertThat(events.getEvents().get(0).getUei(), is("uei.opennms.org/test/0"));
+        assertThat(events.getEvents().get(2).getEventLabel(), is("Test 2"));
+    }
+
+    @Test
+    public void keepsPreviousFileUnlessCommitted() throws IOException {
+        final File eventFile = temporaryFolder.newFile("test.events.xml");
+        Files.write(eventFile.toPath(), "<events/>".getBytes(StandardCharsets.UTF_8));
+        try (EventConfWriter writer = new EventConfWriter(eventFile)) {
+            final Event event = new Event();
+            event.setUei("uei.opennms.org/test");
+            writer.write(event);
+            writer.finish();
+        }
+
+        assertThat(new String(Files.readAllBytes(eventFile.toPath()), StandardCharsets.UTF_8), is("<events/>"));
+        // Only the previous file is left
+        assertThat(temporaryFolder.getRoot().list().length, is(1));
+    }
+}
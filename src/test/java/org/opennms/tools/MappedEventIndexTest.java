@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+import org.junit.Test;
+import org.opennms.netmgt.xml.eventconf.Event;
+import org.opennms.netmgt.xml.eventconf.Mask;
+import org.opennms.netmgt.xml.eventconf.Maskelement;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MappedEventIndexTest {
+
+    @Test
+    public void canFindUnmappedEvents() {
+        final Event linkDown = event("uei.opennms.org/generic/traps/SNMP_Link_Down", null, "2", null);
+        final Event linkUp = event("uei.opennms.org/generic/traps/SNMP_Link_Up", null, "3", null);
+        final Event otherDefault = event("uei.opennms.org/vendor/Other/traps/EnterpriseDefault", ".1.3.6.1.4.1.8.%", "6", null);
+        final Event ciscoConfig = event("uei.opennms.org/vendor/Cisco/traps/ciscoConfigManEvent", ".1.3.6.1.4.1.9.9.43.2", "6", "1");
+        final Event ciscoReload = event("uei.opennms.org/vendor/Cisco/traps/ciscoReload", ".1.3.6.1.4.1.9.9.41.2", "6", "1");
+        final Event ciscoLinkDown = event("uei.opennms.org/vendor/cisco/traps/SNMP_Link_Down", ".1.3.6.1.4.1.9.%", "2", null);
+        final Map<String, List<Event>> eventsByFile = new LinkedHashMap<>();
+        eventsByFile.put("eventconf.xml", Arrays.asList(linkDown, linkUp, otherDefault));
+        eventsByFile.put("events/Cisco.events.xml", Arrays.asList(ciscoConfig, ciscoReload, ciscoLinkDown));
+
+        final DefAndEventMatcher matcher = new DefAndEventMatcher(eventsByFile);
+        final MappedEventIndex index = new MappedEventIndex(matcher, matcher.matchAll(Arrays.asList(
+                def(".1.3.6.1.4.1.9.9.43.2", "6", "1"),
+                def(".1.3.6.1.4.1.9.9.43", "2", "0"),
+                def(".1.3.6.1.4.1.5.*", "6", "1"),
+                // Definitions that cannot be looked up by prefix only count the events they matched
+                def(".1.3.6.1.4.1.9.any", "6", "1"),
+                def(".1.3.6.1.4.1.9.9.41.2", "*.1", "1"))));
+        assertEquals(3, index.size());
+        // OpenNMS would match the generic event first, but Cisco traps from other enterprises still match this one
+        assertTrue(index.isMapped(ciscoLinkDown));
+
+        final Map<String, List<Event>> expected = new LinkedHashMap<>();
+        expected.put("eventconf.xml", Collections.singletonList(linkUp));
+        expected.put("events/Cisco.events.xml", Collections.singletonList(ciscoReload));
+        assertEquals(expected, index.getUnmappedEvents(eventsByFile, Collections.emptyList(), Collections.emptyList()));
+
+        // Filter by include file, by its declared or base name
+        assertEquals(Collections.singletonMap("events/Cisco.events.xml", Collections.singletonList(ciscoReload)),
+                index.getUnmappedEvents(eventsByFile, Collections.emptyList(), Collections.singletonList("Cisco.events.xml")));
+
+        // Filter by UEI prefix
+        assertEquals(Collections.singletonMap("eventconf.xml", Collections.singletonList(linkUp)),
+                index.getUnmappedEvents(eventsByFile, Collections.singletonList("uei.opennms.org/generic/"), Collections.emptyList()));
+    }
+
+    private static SmartsTrapDef def(String enterprise, String trapNumber, String specific) {
+        final SmartsTrapDef def = new SmartsTrapDef();
+        def.setEnterprise(enterprise);
+        def.setTrapNumber(trapNumber);
+        def.setSpecific(specific);
+        return def;
+    }
+
+    private static Event event(String uei, String id, String generic, String specific) {
+        final Mask mask = new Mask();
+        addMaskElement(mask, "id", id);
+        addMaskElement(mask, "generic", generic);
+        addMaskElement(mask, "specific", specific);
+        final Event event = new Event();
+        event.setUei(uei);
+        event.setMask(mask);
+        return event;
+    }
+
+    private static void addMaskElement(Mask mask, String name, String value) {
+        if (value != null) {
+            final Maskelement maskElement = new Maskelement();
+            maskElement.setMename(name);
+            maskElement.getMevalues().add(value);
+            mask.addMaskelement(maskElement);
+        }
+    }
+}
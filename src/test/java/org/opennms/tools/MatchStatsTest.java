@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.tools;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertArrayEquals;
+
+public class MatchStatsTest {
+
+    @Test
+    public void canBucketLatencies() {
+        final MatchStats stats = new MatchStats();
+        stats.record(MatchStrategy.EXACT, true, 0);
+        stats.record(MatchStrategy.EXACT, true, TimeUnit.MICROSECONDS.toNanos(1));
+        stats.record(MatchStrategy.EXACT, false, TimeUnit.MICROSECONDS.toNanos(3));
+        stats.record(MatchStrategy.EXACT, false, TimeUnit.MICROSECONDS.toNanos(4));
+        stats.record(MatchStrategy.EXACT, false, TimeUnit.HOURS.toNanos(1));
+
+        final long[] expected = new long[MatchStats.NUM_BUCKETS];
+        expected[0] = 1;
+        expected[1] = 1;
+        expected[2] = 1;
+        expected[3] = 1;
+        // Everything above 2^22 microseconds goes in the last bucket
+        expected[MatchStats.NUM_BUCKETS - 1] = 1;
+        assertArrayEquals(expected, stats.getLatencyHistogram(MatchStrategy.EXACT));
+        assertThat(stats.getAttempts(MatchStrategy.EXACT), is(5L));
+        assertThat(stats.getMatches(MatchStrategy.EXACT), is(2L));
+        assertThat(stats.getAttempts(MatchStrategy.PREFIX), is(0L));
+    }
+
+    @Test
+    public void canComputePercentiles() {
+        final MatchStats stats = new MatchStats();
+        for (int i = 0; i < 99; i++) {
+            stats.record(MatchStrategy.PREFIX, true, TimeUnit.MICROSECONDS.toNanos(3));
+        }
+        stats.record(MatchStrategy.PREFIX, true, TimeUnit.HOURS.toNanos(1));
+
+        assertThat(stats.getLatencyPercentile(MatchStrategy.PREFIX, 0.5), is(4L));
+        assertThat(stats.getLatencyPercentile(MatchStrategy.PREFIX, 0.99), is(4L));
+        assertThat(stats.getLatencyPercentile(MatchStrategy.PREFIX, 1.0), is(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void canSummarizeSlowAttempts() {
+        final MatchStats stats = new MatchStats();
+        stats.record(MatchStrategy.EXACT, true, TimeUnit.MICROSECONDS.toNanos(3));
+        stats.record(MatchStrategy.PREFIX, true, TimeUnit.HOURS.toNanos(1));
+
+        final String summary = stats.getSummary();
+        assertThat(summary, containsString("<4"));
+        assertThat(summary, containsString(">=4194304"));
+    }
+}
@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class OidTrieTest {
+
+    @Test
+    public void canFindMatchingMasks() {
+        final OidTrie<String> trie = new OidTrie<>();
+        trie.put("%", "any");
+        trie.put(".1.3.6.1.4.1.9.%", "cisco-children");
+        trie.put(".1.3.6.1.4.1.9%", "cisco-prefix");
+        trie.put(".1.3.6.1.4.1.9.9.43", "exact");
+        trie.put(".1.3.6.1.4.1.9.9.43", "exact-2");
+        trie.put("1.3.6.1.4.1.9.9.43", "no-leading-dot");
+
+        assertEquals(Arrays.asList("any", "cisco-children", "cisco-prefix", "exact", "exact-2"),
+                trie.find(".1.3.6.1.4.1.9.9.43"));
+        assertEquals(Arrays.asList("any", "cisco-children", "cisco-prefix"),
+                trie.find(".1.3.6.1.4.1.9.9.44"));
+        // The partial arc matches, but not the children of .9
+        assertEquals(Arrays.asList("any", "cisco-prefix"), trie.find(".1.3.6.1.4.1.99"));
+        assertEquals(Arrays.asList("any", "cisco-prefix"), trie.find(".1.3.6.1.4.1.9"));
+        assertEquals(Collections.singletonList("any"), trie.find(".1.3.6.1.4.1.8"));
+        assertEquals(Arrays.asList("any", "no-leading-dot"), trie.find("1.3.6.1.4.1.9.9.43"));
+    }
+}
@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class SmartsTemplateTest {
+
+    @Test
+    public void canTokenizeTemplates() {
+        final SmartsTemplate template = SmartsTemplate.compile("Port $V2$ on $SYS$ is $FOO$, costs 5$");
+        assertThat(template.getVariables(), is(Arrays.asList("V2", "SYS", "FOO")));
+        assertThat(template.getLiterals(), is(Arrays.asList("Port ", " on ", " is ", ", costs 5$")));
+        assertThat(template.render(), is("Port %parm[#2]% on %interface% is FOO, costs 5$"));
+        assertThat(SmartsTemplate.compile("Port $V2$ on $SYS$ is $FOO$, costs 5$"), sameInstance(template));
+
+        // Variables don't span multiple lines
+        final SmartsTemplate multiline = SmartsTemplate.compile("Costs $5\nor $V1$");
+        assertThat(multiline.getVariables(), is(Collections.singletonList("V1")));
+        assertThat(multiline.render(), is("Costs $5\nor %parm[#1]%"));
+
+        final SmartsTemplate literal = SmartsTemplate.compile("No variables");
+        assertThat(literal.hasVariables(), is(false));
+        assertThat(literal.render(), is("No variables"));
+    }
+
+    @Test
+    public void canRenderReductionKeyParts() {
+        assertThat(SmartsTemplate.compile("$SYS$/$V5$").renderReductionKeyPart(), is("%interface%:%parm[#5]%"));
+        assertThat(SmartsTemplate.compile("$V1$<->$V2$").renderReductionKeyPart(), is("%parm[#1]%:%parm[#2]%"));
+        assertThat(SmartsTemplate.compile("a<-b").renderReductionKeyPart(), is("a<-b"));
+    }
+}
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class SmartsTrapDefCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File traps;
+    private SmartsTrapDefCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        ClassLoader classLoader = getClass().getClassLoader();
+        File smarts = new File(classLoader.getResource("smarts_trap_defs").getFile());
+        traps = temporaryFolder.newFile("traps");
+        Files.copy(smarts.toPath(), traps.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        cache = new SmartsTrapDefCache(temporaryFolder.newFolder("cache"));
+    }
+
+    @Test
+    public void canCacheDefinitions() throws IOException {
+        final SmartsTrapParser parser = new SmartsTrapParser(traps);
+        final List<SmartsTrapDef> parsedDefs = cache.getTrapDefinitions(parser);
+        assertThat(cache.getCacheFile(traps).canRead(), is(true));
+
+        final List<SmartsTrapDef> cachedDefs = cache.getTrapDefinitions(parser);
+        assertEquals(parser.getTrapDefinitions(false), parsedDefs);
+        assertEquals(parsedDefs, cachedDefs);
+
+        // The defaults are shared by the cached definitions too
+        assertThat(cachedDefs.get(0).getDefaults().getClassName(), is("SNMPTrap"));
+        assertSame(cachedDefs.get(0).getDefaults(), cachedDefs.get(1).getDefaults());
+    }
+
+    @Test
+    public void canCacheDefinitionsWithoutSeverity() throws IOException {
+        Files.write(traps.toPath(), ("BEGIN_TRAP .1.2.3 6 1\n" +
+                "EventName: withoutSeverity\n" +
+                "END_TRAP\n" +
+                "BEGIN_TRAP .1.2.3 6 2\n" +
+                "EventName: withSeverity\n" +
+                "Severity: 2\n" +
+                "END_TRAP\n").getBytes(StandardCharsets.UTF_8));
+        final SmartsTrapParser parser = new SmartsTrapParser(traps);
+        final List<SmartsTrapDef> parsedDefs = cache.getTrapDefinitions(parser);
+        final List<SmartsTrapDef> cachedDefs = cache.getTrapDefinitions(parser);
+
+        assertThat(parsedDefs.get(0).hasSeverity(), is(false));
+        assertThat(cachedDefs.get(0).hasSeverity(), is(false));
+        assertThat(cachedDefs.get(1).hasSeverity(), is(true));
+        assertThat(cachedDefs.get(1).getSeverity(), is(2));
+        assertEquals(parsedDefs, cachedDefs);
+    }
+
+    @Test
+    public void canDetectChanges() throws IOException {
+        final SmartsTrapParser parser = new SmartsTrapParser(traps);
+        assertThat(cache.getTrapDefinitions(parser), hasSize(4));
+
+        Files.write(traps.toPath(), ("BEGIN_TRAP .1.2.3 6 1\n" +
+                "EventName: changed\n" +
+                "END_TRAP\n").getBytes(StandardCharsets.UTF_8));
+        final List<SmartsTrapDef> defs = cache.getTrapDefinitions(parser);
+        assertThat(defs, hasSize(1));
+        assertThat(defs.get(0).getEventName(), is("changed"));
+    }
+}
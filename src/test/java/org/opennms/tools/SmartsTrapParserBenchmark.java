@@ -0,0 +1,228 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017-2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Compares the hand-written definition lexer against the previous
+ * regex based implementation, using the definitions from the
+ * smarts_trap_defs test resource scaled up to 100k traps.
+ *
+ * Run with:
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.opennms.tools.SmartsTrapParserBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SmartsTrapParserBenchmark {
+    private static final int NUM_TRAPS = 100000;
+
+    private List<String> definitions;
+
+    @Setup
+    public void setUp() throws IOException {
+        final String conf;
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream("smarts_trap_defs")) {
+            conf = new String(ByteStreams.toByteArray(is), StandardCharsets.UTF_8);
+        }
+
+        final List<String> blocks = new ArrayList<>();
+        final Matcher m = Pattern.compile("BEGIN_TRAP .*?\\n(.*?)END_TRAP", Pattern.DOTALL).matcher(conf);
+        while (m.find()) {
+            blocks.add(m.group(1));
+        }
+
+        definitions = new ArrayList<>(NUM_TRAPS);
+        for (int i = 0; i < NUM_TRAPS; i++) {
+            definitions.add(blocks.get(i % blocks.size()));
+        }
+    }
+
+    @Benchmark
+    public void lexer(Blackhole bh) {
+        for (String definition : definitions) {
+            final SmartsTrapDef def = new SmartsTrapDef();
+            SmartsTrapParser.parseDefinition(def, definition);
+            bh.consume(def);
+        }
+    }
+
+    @Benchmark
+    public void regex(Blackhole bh) {
+        for (String definition : definitions) {
+            final SmartsTrapDef def = new SmartsTrapDef();
+            parseDefinitionWithRegex(def, definition);
+            bh.consume(def);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SmartsTrapParserBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+    /**
+     * The regex based implementation that was replaced by the lexer, kept as a baseline.
+     */
+    private static void parseDefinitionWithRegex(SmartsTrapDef def, String definition) {
+        Pattern regex = Pattern.compile("^\\s*(?<tag>.*?):\\s*(?<value>.*)\\s*$");
+
+        boolean hasMap = false;
+        List<String> lines = Splitter.on("\n").splitToList(definition);
+        for (String line : lines) {
+            Matcher m = regex.matcher(line);
+            if (m.matches()) {
+                final String tag = m.group("tag");
+                final String value = m.group("value");
+                switch(tag) {
+                case "ClassName":
+                    def.setClassName(value);
+                    break;
+                case "ElementName":
+                    def.setElementName(value);
+                    break;
+                case "InstanceName":
+                    def.setInstanceName(value);
+                    break;
+                case "EventName":
+                    def.setEventName(value);
+                    break;
+                case "Severity":
+                    try {
+                        def.setSeverity(Integer.parseInt(value));
+                    } catch (NumberFormatException nfe) {
+                        def.setSeverity(-1);
+                    }
+                    break;
+                case "Expiration":
+                    def.setExpiration(value);
+                    break;
+                case "State":
+                    def.setState(value);
+                    break;
+                case "EventText":
+                    def.setEventText(value);
+                    break;
+                case "EventType":
+                    def.setEventType(value);
+                    break;
+                case "UnknownAgent":
+                    def.setUnknownAgent(value);
+                    break;
+                case "ClearOnAcknowledge":
+                    def.setClearOnAcknowledge(value);
+                    break;
+                case "LogFile":
+                    def.setLogFile(value);
+                    break;
+                case "Map":
+                    hasMap = true;
+                    break;
+                }
+            }
+        }
+
+        if (hasMap) {
+            Pattern mapRegex = Pattern.compile(".*Map:.*?(?<value>\\{.*\\}).*", Pattern.DOTALL);
+            Matcher m = mapRegex.matcher(definition);
+            if (m.matches()) {
+                def.setMap(parseMapWithRegex(m.group("value")));
+            }
+        }
+    }
+
+    private static Map<String, Map<String, String>> parseMapWithRegex(String value) {
+        Map<String, Map<String, String>> map = new LinkedHashMap<>();
+
+        Pattern s_bracketsPattern = Pattern.compile("\\{(.*?)\\}", Pattern.DOTALL);
+        Matcher m = s_bracketsPattern.matcher(value);
+
+        while (m.find()) {
+            String innerBrackets = m.group(1);
+            String lines[] = innerBrackets.split("\n");
+
+            String var = null;
+            boolean first = true;
+            for (String line : lines) {
+                if (Strings.isNullOrEmpty(line.trim())) {
+                    continue;
+                }
+
+                if (first) {
+                    var = line.trim();
+                    first = false;
+                    map.put(var, new LinkedHashMap<>());
+                    continue;
+                }
+
+                String parts[] = line.split("=");
+                String lhs = parts[0].trim();
+                String rhs = parts[1].trim();
+                map.get(var).put(lhs, rhs);
+            }
+        }
+
+        return map;
+    }
+}
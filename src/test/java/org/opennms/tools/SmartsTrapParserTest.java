@@ -31,22 +31,38 @@ package org.opennms.tools;
 import org.hamcrest.BaseMatcher;
 import org.hamcrest.Description;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 public class SmartsTrapParserTest {
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private SmartsTrapParser smartsTrapParser;
 
     @Before
@@ -63,6 +79,208 @@ public class SmartsTrapParserTest {
         assertThat(trapDefs, hasItem(hasEnterprise(".1.3.6.1.2.1.10.32")));
     }
 
+    @Test
+    public void canStreamTrapDefinitionsInFileOrder() throws IOException {
+        final List<SmartsTrapDef> trapDefs = new ArrayList<>();
+        smartsTrapParser.parseTrapDefinitions(trapDefs::add);
+        assertThat(trapDefs, hasSize(4));
+        assertThat(trapDefs.get(0).getEnterprise(), is(".1.3.6.1.2.1.10.32"));
+        assertThat(trapDefs.get(1).getSpecific(), is("3"));
+        assertThat(trapDefs.get(2).getSpecific(), is("103"));
+        assertThat(trapDefs.get(3).getEnterprise(), is(".1.3.6.1.4.1.12148.9.8"));
+    }
+
+    @Test
+    public void canStreamTrapDefinitions() throws IOException {
+        try (Stream<SmartsTrapDef> defs = smartsTrapParser.streamTrapDefinitions()) {
+            final SmartsTrapDef def = defs.filter(d -> d.getEventName().equals("DewpointTooLow"))
+                    .findFirst()
+                    .get();
+            assertThat(def.getSpecific(), is("3"));
+        }
+
+        try (Stream<SmartsTrapDef> defs = smartsTrapParser.streamTrapDefinitions(true)) {
+            assertThat(defs.collect(Collectors.toList()), is(smartsTrapParser.getTrapDefinitions()));
+        }
+    }
+
+    @Test
+    public void canParseInParallel() throws IOException {
+        // Generate a file with enough blocks to span multiple batches
+        final File traps = temporaryFolder.newFile("traps");
+        try (PrintWriter writer = new PrintWriter(traps, StandardCharsets.UTF_8.name())) {
+            for (int i = 0; i < 20000; i++) {
+                writer.printf("BEGIN_TRAP .1.3.6.1.4.1.%d 6 %d%n", i % 97, i);
+                writer.printf("    EventName: event%d%n", i);
+                writer.printf("    Severity: %d%n", i % 5);
+                writer.printf("    State: $V1$%n");
+                writer.printf("    Map: {%n      V1%n      0 = CLEAR%n      1 = NOTIFY%n    }%n");
+                writer.printf("END_TRAP%n%n");
+            }
+        }
+
+        final SmartsTrapParser parser = new SmartsTrapParser(traps);
+        final List<SmartsTrapDef> sequentialDefs = parser.getTrapDefinitions(false);
+        parser.setThreads(4);
+        final List<SmartsTrapDef> parallelDefs = parser.getTrapDefinitions(false);
+
+        assertThat(sequentialDefs, hasSize(20000));
+        assertEquals(sequentialDefs, parallelDefs);
+    }
+
+    @Test
+    public void canReparseIncrementally() throws IOException {
+        final File traps = temporaryFolder.newFile("traps");
+        writeTraps(traps, "a", "b", "c");
+        final SmartsTrapParser parser = new SmartsTrapParser(traps);
+        final SmartsTrapParseResult previous = parser.parse();
+        assertThat(previous.getDefinitions(), hasSize(3));
+
+        // Modify "b", remove "c" and add "d"
+        writeTraps(traps, "a", "b2", "d");
+        final SmartsTrapChanges changes = parser.parse(previous);
+
+        assertThat(changes.getReused(), is(1));
+        assertSame(previous.getDefinitions().get(0), changes.getResult().getDefinitions().get(0));
+        assertThat(changes.getModified(), hasSize(1));
+        assertThat(changes.getModified().get(0).getEventName(), is("b2"));
+        assertThat(changes.getRemoved(), hasSize(1));
+        assertThat(changes.getRemoved().get(0).getEventName(), is("c"));
+        assertThat(changes.getAdded(), hasSize(1));
+        assertThat(changes.getAdded().get(0).getEventName(), is("d"));
+        assertEquals(parser.getTrapDefinitions(false), changes.getResult().getDefinitions());
+    }
+
+    private static void writeTraps(File file, String... eventNames) throws IOException {
+        try (PrintWriter writer = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+            for (String eventName : eventNames) {
+                // Keep the key stable when only the suffix of the name changes
+                writer.printf("BEGIN_TRAP .1.3.6.1.4.1.9 6 %d%n", (int)eventName.charAt(0));
+                writer.printf("    EventName: %s%n", eventName);
+                writer.printf("END_TRAP%n%n");
+            }
+        }
+    }
+
+    @Test
+    public void canInheritDefaults() throws IOException {
+        final String traps = "BEGIN_DEFAULTS\n" +
+                "  ClassName: SNMPTrap\n" +
+                "  Severity: 2\n" +
+                "  LogFile: NONE\n" +
+                "END_DEFAULTS\n" +
+                "BEGIN_TRAP .1.3.6.1.4.1.9 6 1\n" +
+                "  EventName: first\n" +
+                "  Severity: 4\n" +
+                "END_TRAP\n" +
+                "BEGIN_TRAP .1.3.6.1.4.1.9 6 2\n" +
+                "  EventName: second\n" +
+                "  ClassName: Router\n" +
+                "END_TRAP\n" +
+                "BEGIN_DEFAULTS\n" +
+                "  ClassName: Other\n" +
+                "END_DEFAULTS\n" +
+                "BEGIN_TRAP .1.3.6.1.4.1.9 6 3\n" +
+                "  EventName: third\n" +
+                "END_TRAP\n";
+
+        final List<SmartsTrapDef> defs;
+        try (Stream<SmartsTrapDef> stream = new SmartsTrapReader(new StringReader(traps)).stream()) {
+            defs = stream.collect(Collectors.toList());
+        }
+        assertThat(defs, hasSize(3));
+
+        assertThat(defs.get(0).getClassName(), is("SNMPTrap"));
+        assertThat(defs.get(0).getSeverity(), is(4));
+        assertThat(defs.get(0).getLogFile(), is("NONE"));
+        assertThat(defs.get(1).getClassName(), is("Router"));
+        assertThat(defs.get(1).getSeverity(), is(2));
+        assertSame(defs.get(0).getDefaults(), defs.get(1).getDefaults());
+
+        // A later defaults block replaces the previous one
+        assertThat(defs.get(2).getClassName(), is("Other"));
+        assertThat(defs.get(2).getLogFile(), nullValue());
+        assertThat(defs.get(2).hasSeverity(), is(false));
+    }
+
+    @Test
+    public void canShareRepeatedValues() throws IOException {
+        final List<SmartsTrapDef> defs = smartsTrapParser.getTrapDefinitions(false);
+        assertThat(defs.get(0).getState(), is("NOTIFY"));
+        assertSame(defs.get(0).getState(), defs.get(1).getState());
+        assertSame(defs.get(1).getLogFile(), defs.get(2).getLogFile());
+        assertSame(defs.get(1).getEnterprise(), defs.get(2).getEnterprise());
+        assertThat(smartsTrapParser.getStringPool().getHits(), greaterThan(0L));
+        assertThat(smartsTrapParser.getStringPool().getBytesSaved(), greaterThan(0L));
+    }
+
+    @Test
+    public void canEstimateTheBytesSaved() {
+        final StringPool pool = new StringPool();
+        pool.intern("NOTIFY");
+        assertThat(pool.getBytesSaved(), is(0L));
+        // The String itself, plus a char[] with 2 bytes per char, padded to 8 bytes
+        assertSame(pool.intern("NOTIFY"), pool.intern(new StringBuilder("NOTIFY"), 0, 6));
+        assertThat(pool.getBytesSaved(), is(2 * (24L + 32L)));
+    }
+
+    @Test
+    public void canUseTypedValues() throws IOException {
+        final SmartsTrapDef def = smartsTrapParser.getTrapDefinition(".1.3.6.1.2.1.10.32", "6", "1");
+        assertThat(def.getStateValue(), is(SmartsTrapDef.State.NOTIFY));
+        assertThat(def.getEventTypeValue(), is(SmartsTrapDef.EventType.MOMENTARY));
+        assertThat(def.isClearOnAcknowledge(), is(false));
+        assertThat(def.isCreateUnknownAgent(), is(true));
+
+        // The typed values are inherited from the defaults, and parsed again when overridden
+        final SmartsTrapDef values = new SmartsTrapDef();
+        values.setState("CLEAR");
+        values.setEventType("DURABLE");
+        values.setClearOnAcknowledge("TRUE");
+        final SmartsTrapDef inheriting = new SmartsTrapDef();
+        inheriting.setDefaults(SmartsTrapDefaults.of(values));
+        assertThat(inheriting.getStateValue(), is(SmartsTrapDef.State.CLEAR));
+        assertThat(inheriting.getEventTypeValue(), is(SmartsTrapDef.EventType.DURABLE));
+        assertThat(inheriting.isClearOnAcknowledge(), is(true));
+        assertThat(inheriting.isCreateUnknownAgent(), is(false));
+        inheriting.setState("$V1$");
+        inheriting.setClearOnAcknowledge("FALSE");
+        assertThat(inheriting.getStateValue(), nullValue());
+        assertThat(inheriting.isClearOnAcknowledge(), is(false));
+
+        final TrapKey key = def.getKey();
+        assertThat(key.isNumeric(), is(true));
+        assertArrayEquals(new int[]{1, 3, 6, 1, 2, 1, 10, 32}, key.getEnterpriseOid());
+        assertThat(key.getGenericNumber(), is(6));
+        assertThat(key.getSpecificNumber(), is(1));
+        assertThat(def.hashCode(), is(key.hashCode()));
+
+        final TrapKey wildcardKey = new TrapKey(".1.3.6.1.4.1.9.*", "6", "*");
+        assertThat(wildcardKey.isNumeric(), is(false));
+        assertThat(wildcardKey.getEnterpriseOid(), nullValue());
+        assertEquals(wildcardKey, new TrapKey(".1.3.6.1.4.1.9.*", "6", "*"));
+    }
+
+    @Test
+    public void canReadDefinitionsOneAtATime() throws IOException {
+        final String conf = "# comment\n" +
+                "BEGIN_TRAP .1.2.3 6 1\n" +
+                "  EventName: first\n" +
+                "END_TRAP\n" +
+                "\n" +
+                "BEGIN_TRAP .1.2.3 6 2\n" +
+                "  EventName: second\n" +
+                "END_TRAP\n" +
+                "BEGIN_TRAP .1.2.3 6 3\n" +
+                "  EventName: unterminated\n";
+
+        try (SmartsTrapReader reader = new SmartsTrapReader(new StringReader(conf))) {
+            assertThat(reader.next().getEventName(), is("first"));
+            assertThat(reader.next().getEventName(), is("second"));
+            assertThat(reader.next(), nullValue());
+        }
+    }
+
     @Test
     public void canParseTrapDefinitions() throws IOException {
         final SmartsTrapDef def = smartsTrapParser.getTrapDefinition(".1.3.6.1.2.1.10.32", "6", "1");
@@ -83,6 +301,23 @@ public class SmartsTrapParserTest {
         assertThat(def.getLogFile(), is("my.log"));
     }
 
+    @Test
+    public void canLookupDefinitionsByName() throws IOException {
+        final TrapDefIndex index = smartsTrapParser.getIndex();
+        assertThat(index.size(), is(4));
+        assertThat(index.get(".1.3.6.1.4.1.5528.100.10.2.3", "6", "103").getState(), is("CLEAR"));
+        assertThat(index.get(".1.3.6.1.4.1.5528.100.10.2.3", "6", "104"), nullValue());
+        assertThat(index.getByEventName("DewpointTooLow"), hasSize(2));
+        assertThat(index.getByEventName("DewpointTooLow").get(0).getSpecific(), is("3"));
+        assertThat(index.getByClassName("Rectifier"), hasSize(1));
+        assertThat(index.getByClassName("Nope"), hasSize(0));
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void failsOnMissingDefinition() throws IOException {
+        smartsTrapParser.getTrapDefinition(".1.3.6.1.2.1.10.32", "6", "99");
+    }
+
     @Test
     public void canParseMap() throws IOException {
         final SmartsTrapDef def = smartsTrapParser.getTrapDefinition(".1.3.6.1.4.1.12148.9.8", "6", "7");